@@ -20,6 +20,19 @@ DURATION_SECONDS="${DURATION_SECONDS:-60}" # Test duration in seconds
 CONCURRENCY="${CONCURRENCY:-500}"          # Number of concurrent worker threads
 ENCRYPT_RATIO="${ENCRYPT_RATIO:-0.2}"      # Ratio of encryption operations (0.0-1.0)
 DECRYPT_RATIO="${DECRYPT_RATIO:-0.8}"      # Ratio of decryption operations (0.0-1.0)
+TRAFFIC_CLASSES="${TRAFFIC_CLASSES:-}"     # Named traffic classes (overrides concurrency/ratios if set)
+DECRYPT_CACHE="${DECRYPT_CACHE:-false}"    # Serve repeated decrypts from a client-side cache
+CIPHERTEXT_POOL="${CIPHERTEXT_POOL:-}"     # Distinct ciphertexts decrypts are drawn from (1000 with cache, else 0, if empty)
+REUSE_SKEW="${REUSE_SKEW:-1.0}"            # Zipf exponent for ciphertext reuse (0 = uniform)
+ADAPTIVE_CONCURRENCY="${ADAPTIVE_CONCURRENCY:-false}" # Adjust in-flight limit live (CONCURRENCY becomes the maximum)
+LATENCY_TARGET_MS="${LATENCY_TARGET_MS:-0}" # Latency target for the adaptive limiter (0 = none)
+FAULT_PROXY="${FAULT_PROXY:-false}"        # Route requests through the local fault-injecting proxy
+FAULT_PROFILE="${FAULT_PROFILE:-}"         # Faults outside scheduled windows, e.g. "latency=50,jitter=20"
+FAULT_SCHEDULE="${FAULT_SCHEDULE:-}"       # Fault windows, e.g. "30-60:latency=200;90-120:reset=0.05"
+EVENT_LOG="${EVENT_LOG:-}"                 # Per-request event log file (disabled if empty)
+EVENT_SAMPLE_RATE="${EVENT_SAMPLE_RATE:-1.0}" # Fraction of requests written to the event log
+RUN_NAME="${RUN_NAME:-}"                   # Run id in the results store (timestamped if empty)
+BASELINE="${BASELINE:-}"                   # Baseline to compare against after the run (none if empty)
 
 echo "=== Tencent Cloud KMS Stress Tester ==="
 echo "JAR_PATH: $JAR_PATH"
@@ -29,6 +42,13 @@ echo "CMK ID: ${CMK_ID:-[Auto-create temporary key]}"
 echo "Duration: ${DURATION_SECONDS}s"
 echo "Concurrency: $CONCURRENCY"
 echo "Encrypt/Decrypt Ratio: $ENCRYPT_RATIO/$DECRYPT_RATIO"
+echo "Traffic Classes: ${TRAFFIC_CLASSES:-[Single class]}"
+echo "Decrypt Cache: $DECRYPT_CACHE (pool ${CIPHERTEXT_POOL:-[Default]}, skew $REUSE_SKEW)"
+echo "Adaptive Concurrency: $ADAPTIVE_CONCURRENCY"
+echo "Fault Proxy: $FAULT_PROXY"
+echo "Event Log: ${EVENT_LOG:-[Disabled]}"
+echo "Run Name: ${RUN_NAME:-[Timestamped]}"
+echo "Baseline: ${BASELINE:-[None]}"
 
 # Build project if JAR doesn't exist
 if [ ! -f "$JAR_PATH" ]; then
@@ -46,4 +66,17 @@ java -Xms512m -Xmx1g \
   -Dconcurrency="$CONCURRENCY" \
   -DencryptRatio="$ENCRYPT_RATIO" \
   -DdecryptRatio="$DECRYPT_RATIO" \
+  -DtrafficClasses="$TRAFFIC_CLASSES" \
+  -DdecryptCache="$DECRYPT_CACHE" \
+  ${CIPHERTEXT_POOL:+-DciphertextPool="$CIPHERTEXT_POOL"} \
+  -DreuseSkew="$REUSE_SKEW" \
+  -DadaptiveConcurrency="$ADAPTIVE_CONCURRENCY" \
+  -DlatencyTargetMs="$LATENCY_TARGET_MS" \
+  -DfaultProxy="$FAULT_PROXY" \
+  -DfaultProfile="$FAULT_PROFILE" \
+  -DfaultSchedule="$FAULT_SCHEDULE" \
+  -DeventLog="$EVENT_LOG" \
+  -DeventSampleRate="$EVENT_SAMPLE_RATE" \
+  -DrunName="$RUN_NAME" \
+  -Dbaseline="$BASELINE" \
   -jar "$JAR_PATH"
\ No newline at end of file
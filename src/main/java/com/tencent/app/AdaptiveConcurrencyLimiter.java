@@ -0,0 +1,318 @@
+package com.tencent.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency- and throttle-driven limit on the number of in-flight KMS operations.
+ *
+ * Workers take a permit before each operation and return it with the observed round-trip
+ * time. Every interval a control loop adjusts the limit:
+ * <ul>
+ *   <li>If the share of throttled requests exceeds the threshold, the limit is cut
+ *       multiplicatively (the AIMD backoff).</li>
+ *   <li>If a latency target is set and the interval's average RTT exceeds it, the limit is
+ *       scaled down in proportion.</li>
+ *   <li>Otherwise a gradient (tolerance x no-load RTT / current RTT, capped at 1) scales the
+ *       limit, plus a sqrt(limit) headroom for queueing, as in the Gradient2 algorithm.
+ *       With no queueing the limit grows; once RTT rises above the tolerance it shrinks.</li>
+ * </ul>
+ * The no-load RTT is estimated from each interval's 10th-percentile RTT, so a single
+ * unusually fast response cannot pin it. A lower interval estimate is taken at once; a
+ * higher one only pulls the estimate up slowly, over a window of about a minute. A short
+ * burst of queueing is then cut back by the gradient long before it can inflate the
+ * estimate, while a lasting rise of the base RTT (a slower network path, a KMS-side change)
+ * is eventually accepted instead of collapsing the limit for the rest of the run.
+ * Operations that never reach KMS (decrypt cache hits) return their permit through
+ * {@link #releaseWithoutSample()} and do not count as RTT samples.
+ *
+ * The recommended concurrency is the smallest limit whose interval reached near-peak
+ * goodput: limits above the knee of the throughput curve only add queueing.
+ */
+public class AdaptiveConcurrencyLimiter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private static final double BACKOFF_RATIO = 0.8;
+    private static final double SMOOTHING = 0.5;
+
+    /** Percentile of an interval's RTTs used as its no-load estimate */
+    private static final double NO_LOAD_PERCENTILE = 10;
+    /** Fewest RTT samples an interval needs before it may update the no-load estimate */
+    private static final long MIN_NO_LOAD_SAMPLES = 10;
+    /** Time over which a higher interval estimate pulls the no-load RTT up */
+    private static final long NO_LOAD_WINDOW_MS = 60_000;
+    /** Share of peak goodput an interval must reach for its limit to be recommended */
+    private static final double NEAR_PEAK_GOODPUT = 0.95;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long latencyTargetNanos;
+    private final double throttleThreshold;
+
+    // Permit accounting, guarded by this
+    private double estimatedLimit;
+    private int limit;
+    private int inFlight = 0;
+    private int maxInFlightInInterval = 0;
+    private boolean closed = false;
+
+    // Samples for the current interval
+    private final AtomicLong rttSumNanos = new AtomicLong(0);
+    private final AtomicLong rttCount = new AtomicLong(0);
+    private final AtomicReference<LatencyHistogram> rttHistogram = new AtomicReference<>(new LatencyHistogram());
+    private final AtomicLong throttleCount = new AtomicLong(0);
+    private volatile long intervalStartNanos = System.nanoTime();
+    private volatile double noLoadRiseRate = 1000.0 / NO_LOAD_WINDOW_MS;
+
+    // Published state for reporting
+    private volatile double noLoadRttNanos = 0;
+    private volatile double lastRttNanos = 0;
+    private volatile double lastThrottleRate = 0;
+    private final List<Integer> limitHistory = Collections.synchronizedList(new ArrayList<>());
+    // Limit in effect and successful KMS operations per second, one pair per interval
+    private final List<double[]> goodputHistory = Collections.synchronizedList(new ArrayList<>());
+
+    private final ScheduledExecutorService controlLoop = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "concurrency-limiter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param initialLimit Starting limit
+     * @param minLimit Lowest limit the control loop may set
+     * @param maxLimit Highest limit the control loop may set (normally the worker count)
+     * @param tolerance How far above the no-load RTT latency may rise before the limit shrinks
+     * @param latencyTargetMs Hard latency target in milliseconds (0 = none)
+     * @param throttleThreshold Share of throttled requests in an interval that triggers backoff
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance,
+                                      long latencyTargetMs, double throttleThreshold) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.latencyTargetNanos = latencyTargetMs * 1_000_000L;
+        this.throttleThreshold = throttleThreshold;
+        this.estimatedLimit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Starts the periodic control loop.
+     *
+     * @param intervalMs Time between limit updates in milliseconds
+     */
+    public void start(long intervalMs) {
+        noLoadRiseRate = Math.min(1.0, (double) intervalMs / NO_LOAD_WINDOW_MS);
+        intervalStartNanos = System.nanoTime();
+        controlLoop.scheduleAtFixedRate(this::update, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        log.info("Adaptive concurrency limiter started: limit {} (range {}-{}), update every {} ms",
+                 limit, minLimit, maxLimit, intervalMs);
+    }
+
+    /**
+     * Blocks until an operation may start.
+     *
+     * @return True if a permit was taken, false if the limiter has been closed
+     * @throws InterruptedException if the worker is interrupted while waiting
+     */
+    public synchronized boolean acquire() throws InterruptedException {
+        while (!closed && inFlight >= limit) {
+            wait();
+        }
+        if (closed) {
+            return false;
+        }
+        inFlight++;
+        maxInFlightInInterval = Math.max(maxInFlightInInterval, inFlight);
+        return true;
+    }
+
+    /**
+     * Returns a permit and records the operation's outcome.
+     *
+     * @param rttNanos Round-trip time of the operation
+     * @param throttled True if KMS rejected the operation for exceeding its rate limit
+     */
+    public void release(long rttNanos, boolean throttled) {
+        if (throttled) {
+            // Rejections return quickly and would make the service look faster than it is
+            throttleCount.incrementAndGet();
+        } else {
+            rttSumNanos.addAndGet(rttNanos);
+            rttCount.incrementAndGet();
+            rttHistogram.get().record(rttNanos);
+        }
+        releaseWithoutSample();
+    }
+
+    /**
+     * Returns a permit without recording a sample, for operations that did not call KMS.
+     */
+    public void releaseWithoutSample() {
+        synchronized (this) {
+            inFlight--;
+            notify();
+        }
+    }
+
+    /**
+     * One step of the control loop: computes a new limit from the last interval's samples.
+     */
+    void update() {
+        long count = rttCount.getAndSet(0);
+        long sum = rttSumNanos.getAndSet(0);
+        LatencyHistogram window = rttHistogram.getAndSet(new LatencyHistogram());
+        long throttles = throttleCount.getAndSet(0);
+        long now = System.nanoTime();
+        double intervalSeconds = (now - intervalStartNanos) / 1e9;
+        intervalStartNanos = now;
+        int peakInFlight;
+        synchronized (this) {
+            peakInFlight = maxInFlightInInterval;
+            maxInFlightInInterval = inFlight;
+        }
+
+        long total = count + throttles;
+        if (total == 0) {
+            limitHistory.add(limit);
+            return;
+        }
+        double throttleRate = (double) throttles / total;
+        lastThrottleRate = throttleRate;
+
+        double newLimit;
+        double current = estimatedLimit;
+        if (intervalSeconds > 0) {
+            goodputHistory.add(new double[] {limit, count / intervalSeconds});
+        }
+        if (throttleRate > throttleThreshold) {
+            newLimit = current * BACKOFF_RATIO;
+        } else if (count == 0) {
+            newLimit = current;
+        } else {
+            double rtt = (double) sum / count;
+            lastRttNanos = rtt;
+            if (window.getCount() >= MIN_NO_LOAD_SAMPLES) {
+                long windowEstimate = window.getValueAtPercentile(NO_LOAD_PERCENTILE);
+                if (noLoadRttNanos == 0 || windowEstimate < noLoadRttNanos) {
+                    noLoadRttNanos = windowEstimate;
+                } else {
+                    noLoadRttNanos += (windowEstimate - noLoadRttNanos) * noLoadRiseRate;
+                }
+            }
+
+            if (latencyTargetNanos > 0 && rtt > latencyTargetNanos) {
+                newLimit = current * Math.max(0.5, latencyTargetNanos / rtt);
+            } else if (noLoadRttNanos == 0) {
+                newLimit = current; // too few samples so far for a no-load estimate
+            } else {
+                double gradient = Math.max(0.5, Math.min(1.0, tolerance * noLoadRttNanos / rtt));
+                newLimit = current * gradient + Math.sqrt(current);
+                // Do not grow a limit the workers were not even using
+                if (newLimit > current && peakInFlight < current / 2) {
+                    newLimit = current;
+                }
+            }
+        }
+
+        newLimit = current * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+        synchronized (this) {
+            estimatedLimit = newLimit;
+            limit = (int) Math.round(newLimit);
+            notifyAll();
+        }
+        limitHistory.add(limit);
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public double getNoLoadRttMs() {
+        return noLoadRttNanos / 1e6;
+    }
+
+    public double getLastRttMs() {
+        return lastRttNanos / 1e6;
+    }
+
+    public double getLastThrottleRate() {
+        return lastThrottleRate;
+    }
+
+    /**
+     * Returns the limit values chosen by the control loop, one per interval.
+     */
+    public List<Integer> getLimitHistory() {
+        synchronized (limitHistory) {
+            return new ArrayList<>(limitHistory);
+        }
+    }
+
+    /**
+     * Suggested steady-state concurrency: the smallest limit under which an interval reached
+     * near-peak goodput (successful KMS operations per second). Limits above it bought no
+     * more throughput, only longer queues.
+     */
+    public int getRecommendedConcurrency() {
+        List<double[]> history;
+        synchronized (goodputHistory) {
+            history = new ArrayList<>(goodputHistory);
+        }
+        double peak = history.stream().mapToDouble(entry -> entry[1]).max().orElse(0);
+        if (peak == 0) {
+            return getLimit();
+        }
+        double smallest = history.stream()
+            .filter(entry -> entry[1] >= peak * NEAR_PEAK_GOODPUT)
+            .mapToDouble(entry -> entry[0])
+            .min().orElse(getLimit());
+        return (int) smallest;
+    }
+
+    /**
+     * Returns the highest goodput of any interval, in successful KMS operations per second.
+     */
+    public double getPeakGoodput() {
+        synchronized (goodputHistory) {
+            return goodputHistory.stream().mapToDouble(entry -> entry[1]).max().orElse(0);
+        }
+    }
+
+    /**
+     * Stops the control loop and releases any workers waiting for a permit.
+     */
+    @Override
+    public void close() {
+        controlLoop.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.tencent.app;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed working set of ciphertexts that decrypt operations draw from with Zipf-skewed reuse.
+ *
+ * Unlike the one-shot ciphertext queue, a ciphertext in the pool can be decrypted many
+ * times. Slots are filled by encryption operations until the pool is full; after that
+ * the working set stays stable for the rest of the test. Slot i is chosen with
+ * probability proportional to 1/(i+1)^skew, so a skew of 0 gives uniform reuse and
+ * larger values concentrate traffic on a few hot ciphertexts.
+ */
+public class CiphertextPool {
+
+    private final AtomicReferenceArray<String> slots;
+    private final AtomicInteger filled = new AtomicInteger(0);
+    private final double[] cumulativeWeights;
+
+    /**
+     * @param size Number of distinct ciphertexts in the working set
+     * @param skew Zipf exponent controlling reuse skew (0 = uniform)
+     */
+    public CiphertextPool(int size, double skew) {
+        this.slots = new AtomicReferenceArray<>(size);
+        this.cumulativeWeights = new double[size];
+
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cumulativeWeights[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulativeWeights[i] /= sum;
+        }
+    }
+
+    /**
+     * Adds a ciphertext to the working set if it is not yet full.
+     *
+     * @param ciphertext The ciphertext blob returned by KMS Encrypt
+     */
+    public void add(String ciphertext) {
+        int index;
+        while ((index = filled.get()) < slots.length()) {
+            if (filled.compareAndSet(index, index + 1)) {
+                slots.set(index, ciphertext);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Picks a ciphertext according to the configured skew.
+     *
+     * @return A ciphertext, or null if the pool is still empty
+     */
+    public String sample() {
+        int available = Math.min(filled.get(), slots.length());
+        if (available == 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        String ciphertext = index < available ? slots.get(index) : null;
+        // While the pool is still filling, fall back to any slot that already holds a ciphertext
+        if (ciphertext == null) {
+            ciphertext = slots.get(random.nextInt(available));
+        }
+        return ciphertext;
+    }
+
+    public boolean isEmpty() {
+        return filled.get() == 0;
+    }
+
+    public int size() {
+        return Math.min(filled.get(), slots.length());
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+}
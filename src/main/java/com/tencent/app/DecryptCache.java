@@ -0,0 +1,186 @@
+package com.tencent.app;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, concurrent plaintext cache placed in front of KMS Decrypt.
+ *
+ * Entries are keyed by ciphertext blob and sized by an estimate of their heap footprint.
+ * The cache is split into independently locked segments, each an access-ordered
+ * LinkedHashMap with its own share of the byte budget, so eviction is LRU within a
+ * segment and threads decrypting different ciphertexts rarely contend. Entries older
+ * than the TTL are treated as misses and removed on access.
+ */
+public class DecryptCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    /** Approximate per-entry overhead: map node, entry object, two String headers */
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+    private final AtomicLong expirationCount = new AtomicLong(0);
+    private final AtomicLong bytesUsed = new AtomicLong(0);
+    private final AtomicLong entryCount = new AtomicLong(0);
+
+    /**
+     * A cached plaintext with its expiry time and estimated size.
+     */
+    private static final class Entry {
+        final String plaintext;
+        final long expiresAtNanos;
+        final long weight;
+
+        Entry(String plaintext, long expiresAtNanos, long weight) {
+            this.plaintext = plaintext;
+            this.expiresAtNanos = expiresAtNanos;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * One lock-protected, access-ordered slice of the cache.
+     */
+    private static final class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        final long maxBytes;
+        long bytes = 0;
+
+        Segment(long maxBytes) {
+            super(64, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    /**
+     * @param maxBytes Total memory budget for cached entries (estimated)
+     * @param ttlSeconds Time-to-live of an entry; 0 or less disables expiry
+     */
+    public DecryptCache(long maxBytes, long ttlSeconds) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttlSeconds > 0 ? ttlSeconds * 1_000_000_000L : Long.MAX_VALUE;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENT_COUNT);
+        }
+    }
+
+    /**
+     * Looks up the plaintext for a ciphertext.
+     *
+     * @param ciphertext The ciphertext blob
+     * @return The cached plaintext, or null on a miss or expired entry
+     */
+    public String get(String ciphertext) {
+        Segment segment = segmentFor(ciphertext);
+        long now = System.nanoTime();
+        synchronized (segment) {
+            Entry entry = segment.get(ciphertext);
+            // Without a TTL the expiry is Long.MAX_VALUE, which the wrap-safe comparison would overflow
+            if (entry != null && (ttlNanos == Long.MAX_VALUE || now - entry.expiresAtNanos < 0)) {
+                hitCount.incrementAndGet();
+                return entry.plaintext;
+            }
+            if (entry != null) {
+                segment.remove(ciphertext);
+                release(segment, entry);
+                expirationCount.incrementAndGet();
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a decrypted plaintext, evicting least recently used entries of the
+     * segment until it fits in its byte budget.
+     *
+     * @param ciphertext The ciphertext blob
+     * @param plaintext The plaintext returned by KMS
+     */
+    public void put(String ciphertext, String plaintext) {
+        Segment segment = segmentFor(ciphertext);
+        long weight = 2L * (ciphertext.length() + plaintext.length()) + ENTRY_OVERHEAD_BYTES;
+        if (weight > segment.maxBytes) {
+            return; // would evict the whole segment and still not fit
+        }
+        long expiresAt = ttlNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + ttlNanos;
+        Entry entry = new Entry(plaintext, expiresAt, weight);
+
+        synchronized (segment) {
+            Entry previous = segment.put(ciphertext, entry);
+            if (previous != null) {
+                release(segment, previous);
+            }
+            segment.bytes += weight;
+            bytesUsed.addAndGet(weight);
+            entryCount.incrementAndGet();
+
+            Iterator<Map.Entry<String, Entry>> eldest = segment.entrySet().iterator();
+            while (segment.bytes > segment.maxBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                release(segment, evicted);
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getExpirationCount() {
+        return expirationCount.get();
+    }
+
+    public long getBytesUsed() {
+        return bytesUsed.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getEntryCount() {
+        return entryCount.get();
+    }
+
+    /**
+     * @return Fraction of lookups served from the cache (0.0 to 1.0)
+     */
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    private void release(Segment segment, Entry entry) {
+        segment.bytes -= entry.weight;
+        bytesUsed.addAndGet(-entry.weight);
+        entryCount.decrementAndGet();
+    }
+
+    private Segment segmentFor(String ciphertext) {
+        int h = ciphertext.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+}
@@ -0,0 +1,258 @@
+package com.tencent.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline analyzer for event logs written by {@link EventRecorder}.
+ *
+ * The file is read sequentially through a fixed-size buffer and every record is folded
+ * into bounded histograms, so memory use does not depend on the size of the log.
+ * Reports overall, per-operation and per-traffic-class percentiles, time slices, and
+ * per-worker distributions. Percentiles cover successful requests only, like the run's own
+ * statistics; failed and throttled requests, which often return fast, get their own histogram.
+ *
+ * Optional system properties:
+ * <ul>
+ *   <li>sliceSeconds - width of each time slice (default 10)</li>
+ *   <li>fromSecond / toSecond - only include events in this window, relative to test start</li>
+ *   <li>outlierMs - also count per-worker events slower than this threshold</li>
+ * </ul>
+ */
+public class EventLogAnalyzer {
+    private static final Logger log = LoggerFactory.getLogger(EventLogAnalyzer.class);
+
+    private static final int READ_BUFFER_SIZE = 1 << 20; // 1 MB, a whole number of records
+
+    /**
+     * Aggregated statistics for a group of events (a slice, a worker, an operation...).
+     */
+    static class GroupStats {
+        final LatencyHistogram latency = new LatencyHistogram(); // Successful requests only
+        final LatencyHistogram errorLatency = new LatencyHistogram();
+        long count = 0;
+        long errors = 0;
+        long outliers = 0;
+    }
+
+    /**
+     * Reads the event log at the given path and logs the analysis report.
+     *
+     * @param path Event log file written by EventRecorder
+     * @throws IOException if the file cannot be read or is not an event log
+     * @throws IllegalArgumentException if an analysis setting is invalid
+     */
+    public static void analyze(Path path) throws IOException {
+        long sliceSeconds = Long.parseLong(Main.getConfig("sliceSeconds", "10"));
+        if (sliceSeconds <= 0) {
+            throw new IllegalArgumentException("sliceSeconds must be a positive number of seconds, got " + sliceSeconds);
+        }
+        long sliceMillis = sliceSeconds * 1000L;
+        long fromMillis = Long.parseLong(Main.getConfig("fromSecond", "0")) * 1000L;
+        long toMillis = Long.parseLong(Main.getConfig("toSecond", String.valueOf(Long.MAX_VALUE / 1000L))) * 1000L;
+        long outlierNanos = Long.parseLong(Main.getConfig("outlierMs", "0")) * 1_000_000L;
+
+        GroupStats overall = new GroupStats();
+        GroupStats[] byOperation = { new GroupStats(), new GroupStats(), new GroupStats() };
+        Map<Long, GroupStats> bySlice = new TreeMap<>();
+        Map<Integer, GroupStats> byWorker = new TreeMap<>();
+        Map<Integer, GroupStats> byClass = new TreeMap<>();
+
+        long startTimeMillis;
+        double sampleRate;
+        long recordCount;
+        long droppedCount;
+        List<String> classNames = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(EventRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            header.flip();
+
+            if (header.remaining() < EventRecorder.HEADER_SIZE || header.getLong(0) != EventRecorder.MAGIC) {
+                throw new IOException("Not a KMS event log: " + path);
+            }
+            if (header.getInt(8) != EventRecorder.VERSION || header.getInt(12) != EventRecorder.RECORD_SIZE) {
+                throw new IOException("Unsupported event log version " + header.getInt(8) + " in " + path);
+            }
+            startTimeMillis = header.getLong(16);
+            sampleRate = header.getDouble(24);
+            recordCount = header.getLong(32);
+            droppedCount = header.getLong(40);
+            long trailerOffset = header.getLong(48);
+            classNames = readClassNames(channel, trailerOffset, header.getInt(56));
+
+            // Close always sets the trailer offset, so a zero offset means the run did not shut down
+            // cleanly and the count cannot be trusted; scan until the first empty record instead.
+            // Records never extend past the trailer.
+            boolean scanUntilEmpty = trailerOffset == 0;
+            long recordArea = (scanUntilEmpty ? channel.size() : trailerOffset) - EventRecorder.HEADER_SIZE;
+            long maxRecords = Math.max(0, recordArea / EventRecorder.RECORD_SIZE);
+            if (scanUntilEmpty) {
+                recordCount = maxRecords;
+                log.warn("Event log was not closed cleanly, scanning for records");
+            } else {
+                recordCount = Math.min(recordCount, maxRecords);
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long remaining = recordCount;
+            boolean done = false;
+
+            while (remaining > 0 && !done) {
+                chunk.clear();
+                long wanted = Math.min((long) chunk.capacity(), remaining * EventRecorder.RECORD_SIZE);
+                chunk.limit((int) wanted);
+                readFully(channel, chunk);
+                chunk.flip();
+                if (chunk.remaining() < EventRecorder.RECORD_SIZE) {
+                    break; // end of file reached before the expected record count
+                }
+
+                while (chunk.remaining() >= EventRecorder.RECORD_SIZE) {
+                    int base = chunk.position();
+                    long timestamp = chunk.getLong(base);
+                    long latencyNanos = chunk.getLong(base + 8);
+                    int workerId = chunk.getInt(base + 16);
+                    byte operation = chunk.get(base + 24);
+                    byte outcome = chunk.get(base + 25);
+                    int trafficClass = chunk.getShort(base + 26);
+                    chunk.position(base + EventRecorder.RECORD_SIZE);
+                    remaining--;
+
+                    if (timestamp == 0) {
+                        if (scanUntilEmpty) {
+                            done = true;
+                            break;
+                        }
+                        continue; // slot claimed by a writer that had not finished when the log was closed
+                    }
+
+                    long offsetMillis = timestamp - startTimeMillis;
+                    if (offsetMillis < fromMillis || offsetMillis >= toMillis) {
+                        continue;
+                    }
+
+                    boolean error = outcome != EventRecorder.OUTCOME_SUCCESS;
+                    boolean outlier = outlierNanos > 0 && latencyNanos >= outlierNanos;
+                    long slice = Math.max(0, offsetMillis) / sliceMillis;
+
+                    add(overall, latencyNanos, error, outlier);
+                    if (operation >= 0 && operation < byOperation.length) {
+                        add(byOperation[operation], latencyNanos, error, outlier);
+                    }
+                    add(bySlice.computeIfAbsent(slice, k -> new GroupStats()), latencyNanos, error, outlier);
+                    add(byWorker.computeIfAbsent(workerId, k -> new GroupStats()), latencyNanos, error, outlier);
+                    add(byClass.computeIfAbsent(trafficClass, k -> new GroupStats()), latencyNanos, error, outlier);
+                }
+            }
+        }
+
+        double scale = sampleRate > 0 ? 1.0 / sampleRate : 1.0;
+
+        log.info(String.format(
+            "=========================================%n" +
+            "EVENT LOG ANALYSIS%n" +
+            "File: %s%n" +
+            "Sample Rate: %.4f | Records: %d | Dropped: %d%n" +
+            "=========================================",
+            path, sampleRate, overall.count, droppedCount));
+
+        log.info("Overall:  {}", formatGroup(overall));
+        log.info("Encrypt:  {}", formatGroup(byOperation[EventRecorder.OP_ENCRYPT]));
+        log.info("Decrypt:  {}", formatGroup(byOperation[EventRecorder.OP_DECRYPT]));
+        if (byOperation[EventRecorder.OP_DECRYPT_CACHED].count > 0) {
+            log.info("Cached:   {}", formatGroup(byOperation[EventRecorder.OP_DECRYPT_CACHED]));
+        }
+
+        if (byClass.size() > 1) {
+            for (Map.Entry<Integer, GroupStats> entry : byClass.entrySet()) {
+                int index = entry.getKey();
+                String name = index >= 0 && index < classNames.size() ? classNames.get(index) : "#" + index;
+                log.info(String.format("Class %s: %s", name, formatGroup(entry.getValue())));
+            }
+        }
+
+        log.info("----- Time slices ({}s, estimated successful RPS scaled by sample rate) -----", sliceMillis / 1000);
+        for (Map.Entry<Long, GroupStats> entry : bySlice.entrySet()) {
+            GroupStats stats = entry.getValue();
+            double rps = stats.latency.getCount() * scale / (sliceMillis / 1000.0);
+            log.info(String.format("[%6ds] %.2f RPS | %s",
+                entry.getKey() * sliceMillis / 1000, rps, formatGroup(stats)));
+        }
+
+        log.info("----- Per-worker distributions -----");
+        for (Map.Entry<Integer, GroupStats> entry : byWorker.entrySet()) {
+            log.info(String.format("Worker %4d: %s", entry.getKey(), formatGroup(entry.getValue())));
+        }
+        log.info("=========================================");
+    }
+
+    /**
+     * Reads the traffic class names from the trailer written on close. Logs from runs that
+     * did not close cleanly have no trailer, and their classes are shown by index.
+     */
+    private static List<String> readClassNames(FileChannel channel, long offset, int length) throws IOException {
+        if (offset < EventRecorder.HEADER_SIZE || length <= 0 || offset + length > channel.size()) {
+            return new ArrayList<>();
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(length);
+        while (trailer.hasRemaining()) {
+            if (channel.read(trailer, offset + trailer.position()) < 0) {
+                break;
+            }
+        }
+        return new ArrayList<>(Arrays.asList(
+            new String(trailer.array(), 0, trailer.position(), StandardCharsets.UTF_8).split("\n", -1)));
+    }
+
+    private static void add(GroupStats stats, long latencyNanos, boolean error, boolean outlier) {
+        stats.count++;
+        if (error) {
+            stats.errors++;
+            stats.errorLatency.record(latencyNanos);
+        } else {
+            stats.latency.record(latencyNanos);
+        }
+        if (outlier) {
+            stats.outliers++;
+        }
+    }
+
+    private static String formatGroup(GroupStats stats) {
+        LatencyHistogram h = stats.latency;
+        String line = String.format(
+            "n=%d errors=%d outliers=%d | p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+            stats.count, stats.errors, stats.outliers,
+            h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+            h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6,
+            h.getMax() / 1e6);
+        if (stats.errors > 0) {
+            LatencyHistogram e = stats.errorLatency;
+            line += String.format(" | errors p50=%.2fms p99=%.2fms",
+                e.getValueAtPercentile(50) / 1e6, e.getValueAtPercentile(99) / 1e6);
+        }
+        return line;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.tencent.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sampled per-request event recorder backed by a memory-mapped, append-only file.
+ *
+ * Each sampled request is written as a fixed-width binary record. Worker threads claim a
+ * slot with a single atomic increment and write directly into the mapped region, so
+ * recording takes no locks and allocates nothing. The file is pre-sized to a fixed
+ * capacity; once it is full further events are counted as dropped instead of written.
+ * On close the file is truncated to the records actually written, followed by a trailer
+ * with the traffic class names so the analyzer can label classes by name.
+ *
+ * File layout (little-endian):
+ * <pre>
+ * Header (64 bytes):
+ *   0  long   magic ("KMSEVLOG")
+ *   8  int    format version
+ *   12 int    record size in bytes
+ *   16 long   test start time (epoch millis)
+ *   24 double sample rate
+ *   32 long   number of records written
+ *   40 long   number of events dropped because the file was full
+ *   48 long   file offset of the class name trailer (0 until the log is closed cleanly)
+ *   56 int    length of the class name trailer in bytes
+ *
+ * Record (32 bytes):
+ *   0  long   timestamp (epoch millis, at operation completion)
+ *   8  long   latency in nanoseconds
+ *   16 int    worker id
+ *   20 int    payload size in bytes
+ *   24 byte   operation code
+ *   25 byte   outcome code
+ *   26 short  traffic class index
+ *   28 int    reserved
+ *
+ * Trailer (written on close):
+ *   UTF-8 traffic class names separated by '\n', in class index order
+ * </pre>
+ */
+public class EventRecorder implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EventRecorder.class);
+
+    static final long MAGIC = 0x474F4C5645534D4BL; // "KMSEVLOG" read as little-endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 32;
+
+    /** How long close() waits for writers still inside record() before giving up on truncation */
+    private static final long WRITER_DRAIN_NANOS = 1_000_000_000L;
+
+    /** Operation codes */
+    public static final byte OP_ENCRYPT = 0;
+    public static final byte OP_DECRYPT = 1;
+    public static final byte OP_DECRYPT_CACHED = 2; // Decrypt served from the client-side cache
+
+    /** Outcome codes */
+    public static final byte OUTCOME_SUCCESS = 0;
+    public static final byte OUTCOME_ERROR = 1;
+    public static final byte OUTCOME_THROTTLED = 2; // Rejected by KMS rate limiting
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private final double sampleRate;
+    private final List<String> classNames;
+    private final AtomicLong nextSlot = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicInteger activeWriters = new AtomicInteger(0); // Threads currently inside record()
+    private volatile boolean closed = false;
+
+    /**
+     * Creates (or truncates) the event log file and maps it into memory.
+     *
+     * @param path Output file path
+     * @param maxBytes Maximum file size; determines how many records fit
+     * @param sampleRate Fraction of requests to record (0.0 to 1.0)
+     * @param startTimeMillis Test start time stored in the header for time-slicing
+     * @param classNames Traffic class names, indexed like the class index in each record
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public EventRecorder(Path path, long maxBytes, double sampleRate, long startTimeMillis,
+                         List<String> classNames) throws IOException {
+        // A single MappedByteBuffer is limited to Integer.MAX_VALUE bytes
+        long usableBytes = Math.min(maxBytes, Integer.MAX_VALUE) - HEADER_SIZE;
+        if (usableBytes < RECORD_SIZE) {
+            throw new IllegalArgumentException("Event log size too small: " + maxBytes + " bytes");
+        }
+        this.capacity = usableBytes / RECORD_SIZE;
+        this.sampleRate = Math.max(0.0, Math.min(1.0, sampleRate));
+        this.classNames = new ArrayList<>(classNames);
+
+        this.channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity * RECORD_SIZE);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, VERSION);
+        buffer.putInt(12, RECORD_SIZE);
+        buffer.putLong(16, startTimeMillis);
+        buffer.putDouble(24, this.sampleRate);
+        buffer.putLong(32, 0);
+        buffer.putLong(40, 0);
+        buffer.putLong(48, 0);
+        buffer.putInt(56, 0);
+
+        log.info("Event log enabled: {} (sample rate {}, capacity {} records)", path, this.sampleRate, capacity);
+        if (this.classNames.size() > 1) {
+            StringBuilder mapping = new StringBuilder();
+            for (int i = 0; i < this.classNames.size(); i++) {
+                mapping.append(i > 0 ? ", " : "").append(i).append('=').append(this.classNames.get(i));
+            }
+            log.info("Event log traffic classes: {}", mapping);
+        }
+    }
+
+    /**
+     * Records a single request event if it is selected by sampling.
+     *
+     * @param workerId Id of the worker that performed the request
+     * @param trafficClass Index of the worker's traffic class
+     * @param operation Operation code (OP_*)
+     * @param outcome Outcome code (OUTCOME_*)
+     * @param latencyNanos Request latency in nanoseconds
+     * @param payloadSize Payload size in bytes
+     */
+    public void record(int workerId, int trafficClass, byte operation, byte outcome, long latencyNanos, int payloadSize) {
+        if (closed) {
+            return;
+        }
+        if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+
+        // Registered before re-checking closed, so close() can wait for this write before truncating
+        activeWriters.incrementAndGet();
+        try {
+            if (closed) {
+                return;
+            }
+            long slot = nextSlot.getAndIncrement();
+            if (slot >= capacity) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+
+            // Absolute puts only touch this slot's bytes, so concurrent writers never overlap
+            int offset = (int) (HEADER_SIZE + slot * RECORD_SIZE);
+            buffer.putLong(offset, System.currentTimeMillis());
+            buffer.putLong(offset + 8, latencyNanos);
+            buffer.putInt(offset + 16, workerId);
+            buffer.putInt(offset + 20, payloadSize);
+            buffer.put(offset + 24, operation);
+            buffer.put(offset + 25, outcome);
+            buffer.putShort(offset + 26, (short) trafficClass);
+        } finally {
+            activeWriters.decrementAndGet();
+        }
+    }
+
+    public long getRecordedCount() {
+        return Math.min(nextSlot.get(), capacity);
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Finalizes the header with the record counts, flushes the mapping to disk and truncates
+     * the file to the records written. Safe to call while workers are still running: new
+     * events are ignored, and truncation is skipped if an in-progress write does not finish.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        // A write into the mapping past the truncated end of the file would crash the JVM
+        long deadline = System.nanoTime() + WRITER_DRAIN_NANOS;
+        while (activeWriters.get() > 0 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        boolean drained = activeWriters.get() == 0;
+
+        buffer.putLong(32, getRecordedCount());
+        buffer.putLong(40, getDroppedCount());
+        buffer.force();
+
+        // The trailer goes right after the last record, or after the whole record area if a
+        // straggling writer may still touch it
+        long trailerOffset = HEADER_SIZE + (drained ? getRecordedCount() : capacity) * RECORD_SIZE;
+        if (drained) {
+            try {
+                channel.truncate(trailerOffset);
+            } catch (IOException e) {
+                // Some platforms refuse to truncate a mapped file; the header count is still valid
+                log.warn("Could not truncate event log: {}", e.getMessage());
+            }
+        } else {
+            log.warn("Event log writers still active at close, leaving file at its pre-allocated size");
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(String.join("\n", classNames).getBytes(StandardCharsets.UTF_8));
+        int trailerLength = trailer.remaining();
+        long position = trailerOffset;
+        while (trailer.hasRemaining()) {
+            position += channel.write(trailer, position);
+        }
+        buffer.putLong(48, trailerOffset);
+        buffer.putInt(56, trailerLength);
+        buffer.force();
+        channel.close();
+
+        log.info("Event log closed: {} records written, {} dropped (file full)",
+                 getRecordedCount(), getDroppedCount());
+    }
+}
@@ -0,0 +1,158 @@
+package com.tencent.app;
+
+/**
+ * Set of network faults that {@link FaultProxy} injects while it is active.
+ *
+ * Profiles are written as comma-separated key=value settings, for example
+ * {@code latency=200,jitter=50,reset=0.01}. Supported settings:
+ * <ul>
+ *   <li>latency - delay added once to each response (request/response round trip), in milliseconds</li>
+ *   <li>jitter - extra random delay (0 to jitter) added on top of latency, in milliseconds</li>
+ *   <li>bandwidthKbps - throughput cap per connection and direction, in kilobits per second</li>
+ *   <li>reset - probability that a forwarded chunk triggers a connection reset (RST)</li>
+ *   <li>stall - probability that a response is held back for stallMs</li>
+ *   <li>stallMs - length of a stall, in milliseconds (default 5000)</li>
+ *   <li>halfOpen - probability that a new connection, or a response on an existing one,
+ *       is never answered while the client's socket stays open</li>
+ * </ul>
+ */
+public class FaultProfile {
+
+    /** Profile that injects nothing */
+    public static final FaultProfile NONE = new FaultProfile("none", 0, 0, 0, 0, 0, 0, 0);
+
+    private final String label;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final long bandwidthKbps;
+    private final double resetProbability;
+    private final double stallProbability;
+    private final long stallMs;
+    private final double halfOpenProbability;
+
+    FaultProfile(String label, long latencyMs, long jitterMs, long bandwidthKbps, double resetProbability,
+                 double stallProbability, long stallMs, double halfOpenProbability) {
+        this.label = label;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.bandwidthKbps = bandwidthKbps;
+        this.resetProbability = resetProbability;
+        this.stallProbability = stallProbability;
+        this.stallMs = stallMs;
+        this.halfOpenProbability = halfOpenProbability;
+    }
+
+    /**
+     * Parses a profile specification (see class documentation).
+     *
+     * @param spec Comma-separated key=value settings; empty means no faults
+     * @return The parsed profile
+     * @throws IllegalArgumentException if a setting is unknown or has an invalid value
+     */
+    public static FaultProfile parse(String spec) {
+        String trimmed = spec == null ? "" : spec.trim();
+        if (trimmed.isEmpty() || trimmed.equals("none")) {
+            return NONE;
+        }
+
+        long latencyMs = 0;
+        long jitterMs = 0;
+        long bandwidthKbps = 0;
+        double resetProbability = 0;
+        double stallProbability = 0;
+        long stallMs = 5000;
+        double halfOpenProbability = 0;
+
+        for (String setting : trimmed.split(",")) {
+            setting = setting.trim();
+            if (setting.isEmpty()) {
+                continue;
+            }
+            int eq = setting.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Fault profile: expected key=value, got " + setting);
+            }
+            String key = setting.substring(0, eq).trim();
+            String value = setting.substring(eq + 1).trim();
+            try {
+                switch (key) {
+                    case "latency":
+                        latencyMs = Long.parseLong(value);
+                        break;
+                    case "jitter":
+                        jitterMs = Long.parseLong(value);
+                        break;
+                    case "bandwidthKbps":
+                        bandwidthKbps = Long.parseLong(value);
+                        break;
+                    case "reset":
+                        resetProbability = parseProbability(key, value);
+                        break;
+                    case "stall":
+                        stallProbability = parseProbability(key, value);
+                        break;
+                    case "stallMs":
+                        stallMs = Long.parseLong(value);
+                        break;
+                    case "halfOpen":
+                        halfOpenProbability = parseProbability(key, value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Fault profile: unknown setting " + key);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Fault profile: invalid value for " + key + ": " + value);
+            }
+        }
+
+        return new FaultProfile(trimmed, latencyMs, jitterMs, bandwidthKbps, resetProbability,
+                                stallProbability, stallMs, halfOpenProbability);
+    }
+
+    private static double parseProbability(String key, String value) {
+        double probability = Double.parseDouble(value);
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Fault profile: " + key + " must be between 0 and 1");
+        }
+        return probability;
+    }
+
+    public boolean isNone() {
+        return this == NONE;
+    }
+
+    /**
+     * @return The specification this profile was parsed from, used to label report intervals
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public long getJitterMs() {
+        return jitterMs;
+    }
+
+    public long getBandwidthKbps() {
+        return bandwidthKbps;
+    }
+
+    public double getResetProbability() {
+        return resetProbability;
+    }
+
+    public double getStallProbability() {
+        return stallProbability;
+    }
+
+    public long getStallMs() {
+        return stallMs;
+    }
+
+    public double getHalfOpenProbability() {
+        return halfOpenProbability;
+    }
+}
@@ -0,0 +1,466 @@
+package com.tencent.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local HTTP proxy that injects network faults between the KMS client and the endpoint.
+ *
+ * The proxy listens on 127.0.0.1 only and handles both CONNECT tunnels (HTTPS endpoints)
+ * and plain absolute-form requests (HTTP mock endpoints). Bytes are forwarded unchanged;
+ * faults are applied at the TCP level, so they work on encrypted traffic as well.
+ *
+ * Which faults are active is decided per forwarded chunk: a scheduled window covering the
+ * current test second takes precedence, otherwise the base profile applies. No faults are
+ * injected before the test starts or after it ends, so key setup and cleanup are unaffected.
+ *
+ * Latency, jitter, stalls and half-open are applied once per response: to the first chunk
+ * the upstream sends after the client has sent something. A response split over several
+ * reads is therefore delayed once, while each TLS handshake round trip counts as its own
+ * response, as it would on a slow network. Half-open is also checked per response because
+ * the SDK reuses pooled keep-alive connections, so few new connections open mid-run.
+ *
+ * Schedules are written as {@code start-end:profile} windows separated by semicolons,
+ * with times in seconds since test start, for example:
+ * <pre>
+ * 30-60:latency=200,jitter=50;90-120:reset=0.05;150-180:halfOpen=1
+ * </pre>
+ */
+public class FaultProxy implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(FaultProxy.class);
+
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int UPSTREAM_CONNECT_TIMEOUT_MS = 10_000;
+
+    /**
+     * A fault profile active between two offsets from test start.
+     */
+    public static class Window {
+        final long startSecond;
+        final long endSecond;
+        final FaultProfile profile;
+
+        Window(long startSecond, long endSecond, FaultProfile profile) {
+            this.startSecond = startSecond;
+            this.endSecond = endSecond;
+            this.profile = profile;
+        }
+    }
+
+    /**
+     * State shared by the two forwarding directions of one proxied connection.
+     */
+    private static class Exchange {
+        /** Set when client bytes were forwarded and no response chunk has followed yet */
+        final AtomicBoolean awaitingResponse = new AtomicBoolean(false);
+        /** Set once the connection went half-open: nothing is forwarded any more */
+        volatile boolean halfOpen = false;
+    }
+
+    private final FaultProfile baseProfile;
+    private final List<Window> schedule;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionThreads;
+
+    private volatile long testStartMillis = 0;
+    private volatile boolean faultsEnabled = true;
+    private volatile boolean closed = false;
+
+    // Injection counters for the final report
+    private final AtomicLong connectionCount = new AtomicLong(0);
+    private final AtomicLong resetCount = new AtomicLong(0);
+    private final AtomicLong stallCount = new AtomicLong(0);
+    private final AtomicLong halfOpenCount = new AtomicLong(0);
+
+    /**
+     * Binds the proxy to the loopback interface and starts accepting connections.
+     *
+     * @param port Local port to listen on (0 picks a free port)
+     * @param baseProfile Faults applied outside scheduled windows
+     * @param schedule Time windows with their own fault profiles
+     * @throws IOException if the port cannot be bound
+     */
+    public FaultProxy(int port, FaultProfile baseProfile, List<Window> schedule) throws IOException {
+        this.baseProfile = baseProfile;
+        this.schedule = schedule;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+
+        this.connectionThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "fault-proxy-" + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        connectionThreads.submit(this::acceptLoop);
+
+        log.info("Fault proxy listening on 127.0.0.1:{} (base profile: {}, {} scheduled windows)",
+                 getPort(), baseProfile.getLabel(), schedule.size());
+    }
+
+    /**
+     * Parses a fault schedule (see class documentation).
+     *
+     * @param spec Semicolon-separated windows; empty means no schedule
+     * @return The windows, in definition order
+     * @throws IllegalArgumentException if the schedule is malformed
+     */
+    public static List<Window> parseSchedule(String spec) {
+        List<Window> windows = new ArrayList<>();
+        if (spec == null || spec.trim().isEmpty()) {
+            return windows;
+        }
+        for (String definition : spec.split(";")) {
+            definition = definition.trim();
+            if (definition.isEmpty()) {
+                continue;
+            }
+            int colon = definition.indexOf(':');
+            int dash = definition.indexOf('-');
+            if (colon < 0 || dash < 0 || dash > colon) {
+                throw new IllegalArgumentException("Fault schedule: expected start-end:profile, got " + definition);
+            }
+            try {
+                long start = Long.parseLong(definition.substring(0, dash).trim());
+                long end = Long.parseLong(definition.substring(dash + 1, colon).trim());
+                if (end <= start) {
+                    throw new IllegalArgumentException("Fault schedule: window end must be after start in " + definition);
+                }
+                windows.add(new Window(start, end, FaultProfile.parse(definition.substring(colon + 1))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Fault schedule: invalid window bounds in " + definition);
+            }
+        }
+        return Collections.unmodifiableList(windows);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Marks the start of the test; schedule offsets are measured from this point.
+     */
+    public void setTestStart(long startMillis) {
+        this.testStartMillis = startMillis;
+    }
+
+    /**
+     * Stops injecting faults without closing the proxy (e.g. for cleanup calls after the test).
+     */
+    public void disableFaults() {
+        this.faultsEnabled = false;
+    }
+
+    /**
+     * Returns the profile in effect right now.
+     */
+    public FaultProfile activeProfile() {
+        long start = testStartMillis;
+        if (start == 0) {
+            return FaultProfile.NONE;
+        }
+        return profileAt(System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Returns the profile in effect at a point of the test.
+     *
+     * @param offsetMillis Time since test start in milliseconds
+     */
+    public FaultProfile profileAt(long offsetMillis) {
+        if (!faultsEnabled || testStartMillis == 0) {
+            return FaultProfile.NONE;
+        }
+        long offsetSeconds = Math.floorDiv(offsetMillis, 1000);
+        for (Window window : schedule) {
+            if (offsetSeconds >= window.startSecond && offsetSeconds < window.endSecond) {
+                return window.profile;
+            }
+        }
+        return baseProfile;
+    }
+
+    /**
+     * Returns the times at which the active profile may change: the start and end of every
+     * scheduled window, in seconds since test start and in ascending order.
+     */
+    public List<Long> getBoundarySeconds() {
+        TreeSet<Long> boundaries = new TreeSet<>();
+        for (Window window : schedule) {
+            boundaries.add(window.startSecond);
+            boundaries.add(window.endSecond);
+        }
+        return new ArrayList<>(boundaries);
+    }
+
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public long getResetCount() {
+        return resetCount.get();
+    }
+
+    public long getStallCount() {
+        return stallCount.get();
+    }
+
+    public long getHalfOpenCount() {
+        return halfOpenCount.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.debug("Error closing fault proxy socket: {}", e.getMessage());
+        }
+        connectionThreads.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                connectionThreads.submit(() -> handleConnection(client));
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Fault proxy accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the proxy request head, opens the upstream connection and forwards traffic in both directions.
+     */
+    private void handleConnection(Socket client) {
+        Socket upstream = null;
+        try {
+            client.setTcpNoDelay(true);
+            InputStream clientIn = client.getInputStream();
+            OutputStream clientOut = client.getOutputStream();
+
+            byte[] head = readRequestHead(clientIn);
+            if (head == null) {
+                closeQuietly(client);
+                return;
+            }
+            String headText = new String(head, StandardCharsets.ISO_8859_1);
+            String[] requestLine = headText.substring(0, headText.indexOf("\r\n")).split(" ");
+            if (requestLine.length < 2) {
+                throw new IOException("Malformed proxy request: " + requestLine[0]);
+            }
+            boolean tunnel = "CONNECT".equalsIgnoreCase(requestLine[0]);
+
+            String host;
+            int port;
+            if (tunnel) {
+                int colon = requestLine[1].lastIndexOf(':');
+                host = requestLine[1].substring(0, colon);
+                port = Integer.parseInt(requestLine[1].substring(colon + 1));
+            } else {
+                URI uri = URI.create(requestLine[1]);
+                host = uri.getHost();
+                port = uri.getPort() > 0 ? uri.getPort() : 80;
+            }
+
+            upstream = new Socket();
+            upstream.connect(new InetSocketAddress(host, port), UPSTREAM_CONNECT_TIMEOUT_MS);
+            upstream.setTcpNoDelay(true);
+
+            if (tunnel) {
+                clientOut.write("HTTP/1.1 200 Connection Established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                clientOut.flush();
+            } else {
+                // Absolute-form requests are accepted by HTTP/1.1 servers, so the head is forwarded as-is
+                upstream.getOutputStream().write(head);
+                upstream.getOutputStream().flush();
+            }
+
+            FaultProfile profile = activeProfile();
+            if (ThreadLocalRandom.current().nextDouble() < profile.getHalfOpenProbability()) {
+                // Keep the connection open but never answer: the client only notices through its timeouts
+                halfOpenCount.incrementAndGet();
+                closeQuietly(upstream);
+                drain(clientIn);
+                closeQuietly(client);
+                return;
+            }
+
+            Socket upstreamSocket = upstream;
+            Exchange exchange = new Exchange();
+            connectionThreads.submit(() -> pump(upstreamSocket, client, true, exchange));
+            pump(client, upstream, false, exchange);
+
+        } catch (Exception e) {
+            log.debug("Fault proxy connection failed: {}", e.getMessage());
+            closeQuietly(client);
+            closeQuietly(upstream);
+        }
+    }
+
+    /**
+     * Copies bytes from one socket to the other, applying the active fault profile. Resets and
+     * bandwidth apply to every chunk; latency, stalls and half-open to the first chunk of each
+     * response.
+     *
+     * @param response True for the upstream-to-client direction, where per-response faults apply
+     * @param exchange State shared with the opposite direction of the same connection
+     */
+    private void pump(Socket from, Socket to, boolean response, Exchange exchange) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                if (exchange.halfOpen) {
+                    continue; // swallow client bytes; the upstream side is already gone
+                }
+                FaultProfile profile = activeProfile();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                if (random.nextDouble() < profile.getResetProbability()) {
+                    resetCount.incrementAndGet();
+                    reset(from);
+                    reset(to);
+                    return;
+                }
+
+                long delayMs = 0;
+                if (response && exchange.awaitingResponse.getAndSet(false)) {
+                    if (random.nextDouble() < profile.getHalfOpenProbability()) {
+                        // Stop answering but keep the client socket open, as on an existing
+                        // connection whose peer silently went away
+                        halfOpenCount.incrementAndGet();
+                        exchange.halfOpen = true;
+                        closeQuietly(from);
+                        return;
+                    }
+                    delayMs += profile.getLatencyMs();
+                    if (profile.getJitterMs() > 0) {
+                        delayMs += random.nextLong(profile.getJitterMs() + 1);
+                    }
+                    if (random.nextDouble() < profile.getStallProbability()) {
+                        stallCount.incrementAndGet();
+                        delayMs += profile.getStallMs();
+                    }
+                }
+                if (profile.getBandwidthKbps() > 0) {
+                    delayMs += n * 8L / profile.getBandwidthKbps();
+                }
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+
+                if (!response) {
+                    // Set before forwarding, so the reply cannot arrive ahead of the flag
+                    exchange.awaitingResponse.set(true);
+                }
+                out.write(buffer, 0, n);
+                out.flush();
+            }
+            if (exchange.halfOpen) {
+                closeQuietly(from); // the client gave up on the silent connection
+                return;
+            }
+            // Propagate the half-close so the other direction can finish normally
+            to.shutdownOutput();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeQuietly(from);
+            closeQuietly(to);
+        } catch (IOException e) {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    /**
+     * Reads the request head up to and including the blank line.
+     *
+     * @return The head bytes, or null if the client closed the connection first
+     */
+    private static byte[] readRequestHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        int b;
+        while ((b = in.read()) >= 0) {
+            head.write(b);
+            // Track progress through the "\r\n\r\n" terminator
+            if ((b == '\r' && (matched == 0 || matched == 2)) || (b == '\n' && (matched == 1 || matched == 3))) {
+                matched++;
+            } else {
+                matched = b == '\r' ? 1 : 0;
+            }
+            if (matched == 4) {
+                return head.toByteArray();
+            }
+            if (head.size() > MAX_HEADER_BYTES) {
+                throw new IOException("Proxy request head too large");
+            }
+        }
+        return null;
+    }
+
+    private static void drain(InputStream in) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        } catch (IOException e) {
+            // client gave up
+        }
+    }
+
+    private static void reset(Socket socket) {
+        try {
+            socket.setSoLinger(true, 0); // close with RST instead of FIN
+        } catch (IOException e) {
+            // socket already closed
+        }
+        closeQuietly(socket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
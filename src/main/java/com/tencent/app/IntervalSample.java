@@ -0,0 +1,136 @@
+package com.tencent.app;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Statistics for one periodic reporting interval of a stress test.
+ *
+ * A sample is taken each time the periodic stats are reported. The series of samples
+ * shows how throughput, errors and latency changed over the run, and which network
+ * fault profile (if any) was active at the time. Samples are stored with each run result
+ * so runs can be compared interval by interval.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class IntervalSample {
+
+    private final double offsetSeconds;
+    private final double durationSeconds;
+    private final long successCount;
+    private final long cacheHitCount;
+    private final long errorCount;
+    private final double p50Ms;
+    private final double p99Ms;
+    private final double p999Ms;
+    private final double maxMs;
+    private final String faultLabel;
+    private final Map<String, Long> errorClasses;
+
+    /**
+     * @param offsetSeconds Interval end, in seconds since test start
+     * @param durationSeconds Interval length in seconds
+     * @param successCount Successful operations completed in the interval, decrypt cache hits included
+     * @param cacheHitCount Decrypts served by the decrypt cache in the interval
+     * @param errorCount Failed operations in the interval
+     * @param latency Latency of the successful KMS calls in the interval (cache hits excluded)
+     * @param faultLabel Fault profile active at the end of the interval ("none" if no faults)
+     * @param errorClasses Errors in the interval by error class
+     */
+    public IntervalSample(double offsetSeconds, double durationSeconds, long successCount, long cacheHitCount,
+                          long errorCount, LatencyHistogram latency, String faultLabel, Map<String, Long> errorClasses) {
+        this(offsetSeconds, durationSeconds, successCount, cacheHitCount, errorCount,
+             latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+             latency.getValueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6, faultLabel, errorClasses);
+    }
+
+    /** Constructor for Jackson deserialization of stored run results */
+    @JsonCreator
+    public IntervalSample(@JsonProperty("offsetSeconds") double offsetSeconds,
+                          @JsonProperty("durationSeconds") double durationSeconds,
+                          @JsonProperty("successCount") long successCount,
+                          @JsonProperty("cacheHitCount") long cacheHitCount,
+                          @JsonProperty("errorCount") long errorCount,
+                          @JsonProperty("p50Ms") double p50Ms,
+                          @JsonProperty("p99Ms") double p99Ms,
+                          @JsonProperty("p999Ms") double p999Ms,
+                          @JsonProperty("maxMs") double maxMs,
+                          @JsonProperty("faultLabel") String faultLabel,
+                          @JsonProperty("errorClasses") Map<String, Long> errorClasses) {
+        this.offsetSeconds = offsetSeconds;
+        this.durationSeconds = durationSeconds;
+        this.successCount = successCount;
+        this.cacheHitCount = cacheHitCount;
+        this.errorCount = errorCount;
+        this.p50Ms = p50Ms;
+        this.p99Ms = p99Ms;
+        this.p999Ms = p999Ms;
+        this.maxMs = maxMs;
+        this.faultLabel = faultLabel;
+        this.errorClasses = errorClasses != null ? Collections.unmodifiableMap(errorClasses) : Collections.emptyMap();
+    }
+
+    public double getOffsetSeconds() {
+        return offsetSeconds;
+    }
+
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    /**
+     * @return Successful operations that reached KMS, the ones the latency percentiles describe
+     */
+    @JsonIgnore
+    public long getKmsSuccessCount() {
+        return successCount - cacheHitCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return Successful operations per second, derived from the stored count and duration
+     */
+    @JsonIgnore
+    public double getRps() {
+        return durationSeconds > 0 ? successCount / durationSeconds : 0;
+    }
+
+    public double getP50Ms() {
+        return p50Ms;
+    }
+
+    public double getP99Ms() {
+        return p99Ms;
+    }
+
+    public double getP999Ms() {
+        return p999Ms;
+    }
+
+    public double getMaxMs() {
+        return maxMs;
+    }
+
+    public String getFaultLabel() {
+        return faultLabel;
+    }
+
+    public Map<String, Long> getErrorClasses() {
+        return errorClasses;
+    }
+}
@@ -0,0 +1,202 @@
+package com.tencent.app;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, log-linear latency histogram for nanosecond values.
+ *
+ * Values below 64 are counted exactly; larger values fall into buckets that split each
+ * power of two into 32 sub-buckets, giving roughly 3% relative precision across the full
+ * range of a long. The bucket array never grows, so recording is allocation-free and
+ * safe to call concurrently from many worker threads.
+ */
+public class LatencyHistogram {
+
+    /** Number of bits used for the linear sub-buckets within each power of two */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** Total buckets needed to cover every non-negative long value */
+    static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + 2 * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong(0);
+    private final AtomicLong totalSum = new AtomicLong(0);
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    /**
+     * Records a single latency value.
+     *
+     * @param valueNanos Latency in nanoseconds (negative values are clamped to zero)
+     */
+    public void record(long valueNanos) {
+        long value = Math.max(0, valueNanos);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+        updateMin(value);
+        updateMax(value);
+    }
+
+    /**
+     * Adds all recorded values of another histogram into this one.
+     *
+     * @param other The histogram to merge from
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = other.counts.get(i);
+            if (c > 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalSum.addAndGet(other.totalSum.get());
+        if (other.totalCount.get() > 0) {
+            updateMin(other.minValue.get());
+            updateMax(other.maxValue.get());
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMin() {
+        return totalCount.get() > 0 ? minValue.get() : 0;
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public long getSum() {
+        return totalSum.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count > 0 ? (double) totalSum.get() / count : 0;
+    }
+
+    /**
+     * Returns the value at the given percentile, reported as the midpoint of the bucket
+     * that contains it and clamped to the observed min/max.
+     *
+     * @param percentile Percentile in the range 0-100 (e.g. 99.9)
+     * @return Latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count);
+        target = Math.max(1, target);
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                long value = bucketMidpoint(i);
+                return Math.max(getMin(), Math.min(getMax(), value));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the non-empty buckets as index to count, for compact serialization.
+     */
+    public Map<Integer, Long> getNonZeroBuckets() {
+        Map<Integer, Long> buckets = new TreeMap<>();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = counts.get(i);
+            if (c > 0) {
+                buckets.put(i, c);
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Rebuilds a histogram from serialized buckets (see {@link #getNonZeroBuckets()}).
+     *
+     * @param buckets Bucket index to count
+     * @param sum Sum of all recorded values
+     * @param min Smallest recorded value
+     * @param max Largest recorded value
+     * @return A histogram with the same distribution as the serialized one
+     */
+    public static LatencyHistogram fromBuckets(Map<Integer, Long> buckets, long sum, long min, long max) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (Map.Entry<Integer, Long> entry : buckets.entrySet()) {
+            int index = entry.getKey();
+            if (index >= 0 && index < BUCKET_COUNT) {
+                histogram.counts.addAndGet(index, entry.getValue());
+                histogram.totalCount.addAndGet(entry.getValue());
+            }
+        }
+        histogram.totalSum.set(sum);
+        if (histogram.totalCount.get() > 0) {
+            histogram.minValue.set(min);
+            histogram.maxValue.set(max);
+        }
+        return histogram;
+    }
+
+    /**
+     * Maps a non-negative value to its bucket index.
+     */
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift);
+        return shift * SUB_BUCKET_COUNT + mantissa;
+    }
+
+    /**
+     * Returns the smallest value that maps to the given bucket.
+     */
+    static long bucketLowerBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return mantissa << shift;
+    }
+
+    private static long bucketMidpoint(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return bucketLowerBound(index) + ((1L << shift) >>> 1);
+    }
+
+    private void updateMin(long value) {
+        long current;
+        while (value < (current = minValue.get())) {
+            if (minValue.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    private void updateMax(long value) {
+        long current;
+        while (value > (current = maxValue.get())) {
+            if (maxValue.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+}
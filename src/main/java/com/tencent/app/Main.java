@@ -1,18 +1,38 @@
 package com.tencent.app;
 
+import com.tencentcloudapi.common.AbstractClient;
 import com.tencentcloudapi.common.Credential;
+import com.tencentcloudapi.common.exception.TencentCloudSDKException;
 import com.tencentcloudapi.common.profile.ClientProfile;
 import com.tencentcloudapi.common.profile.HttpProfile;
 import com.tencentcloudapi.kms.v20190118.KmsClient;
 import com.tencentcloudapi.kms.v20190118.models.*;
 
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.Base64;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.net.ssl.SSLException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,13 +47,18 @@ import org.slf4j.LoggerFactory;
 public class Main {
     private static final Logger log = LoggerFactory.getLogger(Main.class);
     
+    // Every setting read through getConfig with its effective value, saved with the run result
+    private static final Map<String, String> effectiveConfig = Collections.synchronizedMap(new TreeMap<>());
+    
     /**
      * Retrieves configuration value from system properties with fallback to default.
      * System properties can be set via -D flags when running the JAR.
      */
-    private static String getConfig(String key, String defaultValue) {
+    static String getConfig(String key, String defaultValue) {
         String value = System.getProperty(key);
-        return value != null ? value : defaultValue;
+        String effective = value != null ? value : defaultValue;
+        effectiveConfig.put(key, effective);
+        return effective;
     }
     
     // Test configuration parameters (can be overridden via system properties)
@@ -45,12 +70,56 @@ public class Main {
     private static final double ENCRYPT_RATIO = Double.parseDouble(getConfig("encryptRatio", "0.5")); // 50% encryption operations
     private static final double DECRYPT_RATIO = Double.parseDouble(getConfig("decryptRatio", "0.5")); // 50% decryption operations
     
+    // Per-request event log (disabled unless a file path is given)
+    private static final String EVENT_LOG = getConfig("eventLog", "");
+    private static final double EVENT_SAMPLE_RATE = Double.parseDouble(getConfig("eventSampleRate", "1.0")); // Fraction of requests recorded
+    private static final long EVENT_LOG_MAX_MB = Long.parseLong(getConfig("eventLogMaxMb", "512")); // Pre-allocated file size
+    
+    // Client-side decrypt cache and ciphertext reuse
+    private static final boolean DECRYPT_CACHE = Boolean.parseBoolean(getConfig("decryptCache", "false"));
+    private static final long CACHE_MAX_MB = Long.parseLong(getConfig("cacheMaxMb", "64")); // Cache memory budget
+    private static final long CACHE_TTL_SECONDS = Long.parseLong(getConfig("cacheTtlSeconds", "300")); // 0 = no expiry
+    private static final int CIPHERTEXT_POOL_SIZE = Integer.parseInt(
+        getConfig("ciphertextPool", DECRYPT_CACHE ? "1000" : "0")); // 0 = each ciphertext decrypted once
+    private static final double REUSE_SKEW = Double.parseDouble(getConfig("reuseSkew", "1.0")); // Zipf exponent, 0 = uniform
+    
+    // Named traffic classes running side by side (replaces concurrency/encryptRatio when set)
+    private static final String TRAFFIC_CLASSES = getConfig("trafficClasses", "");
+    
+    // KMS endpoint and local fault-injecting proxy
+    private static final String ENDPOINT = getConfig("endpoint", "kms.internal.tencentcloudapi.com"); // Internal endpoint for lower latency
+    private static final String PROTOCOL = getConfig("protocol", "https://"); // "http://" for a local mock endpoint
+    private static final boolean FAULT_PROXY = Boolean.parseBoolean(getConfig("faultProxy", "false"));
+    private static final int FAULT_PROXY_PORT = Integer.parseInt(getConfig("faultProxyPort", "0")); // 0 = any free port
+    private static final String FAULT_PROFILE = getConfig("faultProfile", ""); // Faults outside scheduled windows
+    private static final String FAULT_SCHEDULE = getConfig("faultSchedule", ""); // e.g. "30-60:latency=200;90-120:reset=0.05"
+    
+    // Adaptive concurrency: the worker count becomes the upper bound for a live in-flight limit
+    private static final boolean ADAPTIVE_CONCURRENCY = Boolean.parseBoolean(getConfig("adaptiveConcurrency", "false"));
+    private static final int LIMITER_INITIAL = Integer.parseInt(getConfig("limiterInitial", "10"));
+    private static final int LIMITER_MIN = Integer.parseInt(getConfig("limiterMin", "1"));
+    private static final long LIMITER_INTERVAL_MS = Long.parseLong(getConfig("limiterIntervalMs", "1000"));
+    private static final double LIMITER_TOLERANCE = Double.parseDouble(getConfig("limiterTolerance", "1.5")); // Allowed RTT / no-load RTT
+    private static final long LATENCY_TARGET_MS = Long.parseLong(getConfig("latencyTargetMs", "0")); // 0 = no hard target
+    private static final double THROTTLE_THRESHOLD = Double.parseDouble(getConfig("throttleThreshold", "0.01")); // Throttled share that triggers backoff
+    
+    // Run results: each run is saved to a local store and can be compared against a named baseline
+    private static final boolean SAVE_RESULTS = Boolean.parseBoolean(getConfig("saveResults", "true"));
+    private static final String RESULTS_DIR = getConfig("resultsDir", "results");
+    private static final String RUN_NAME = getConfig("runName", ""); // Empty = run-<yyyyMMdd-HHmmss>
+    private static final String BASELINE = getConfig("baseline", ""); // Baseline to compare against after the run
+    private static final double REGRESSION_THRESHOLD = Double.parseDouble(getConfig("regressionThreshold", "0.05")); // Smallest relative change flagged
+    
     // Atomic counters for thread-safe statistics tracking across all worker threads
     private static final AtomicLong encryptSuccessCount = new AtomicLong(0);
     private static final AtomicLong decryptSuccessCount = new AtomicLong(0);
     private static final AtomicLong totalSuccessCount = new AtomicLong(0);
     private static final AtomicLong errorCount = new AtomicLong(0);
-    private static final AtomicLong totalLatency = new AtomicLong(0);
+    private static final AtomicLong totalLatency = new AtomicLong(0); // KMS calls only, in ms
+    private static final AtomicLong cacheHitCount = new AtomicLong(0); // Decrypts served by the cache (also in the success counts)
+    private static final LatencyHistogram kmsDecryptLatency = new LatencyHistogram(); // Decrypts that reached KMS
+    private static final LatencyHistogram cacheHitLatency = new LatencyHistogram(); // Decrypts served by the cache
+    private static final ConcurrentHashMap<String, AtomicLong> errorClassCounts = new ConcurrentHashMap<>(); // Errors by class (error code or network failure)
     private static final AtomicInteger activeThreads = new AtomicInteger(0);
     
     // Statistics tracking for periodic reporting (stores last reported values)
@@ -58,7 +127,15 @@ public class Main {
     private static final AtomicLong lastDecryptSuccessCount = new AtomicLong(0);
     private static final AtomicLong lastTotalSuccessCount = new AtomicLong(0);
     private static final AtomicLong lastErrorCount = new AtomicLong(0);
+    private static final AtomicLong lastCacheHitCount = new AtomicLong(0);
     private static volatile long lastStatsTime = System.currentTimeMillis();
+    private static final Map<String, Long> lastErrorClassCounts = new HashMap<>(); // Only touched by the stats reporter
+    
+    // Interval series: one sample per periodic report once the test has started (latency of KMS calls only)
+    private static volatile long testStartTime = 0;
+    private static volatile long testEndTime = 0; // Set when workers are told to stop; later reports add no samples
+    private static final AtomicReference<LatencyHistogram> intervalLatency = new AtomicReference<>(new LatencyHistogram());
+    private static final List<IntervalSample> intervalSamples = Collections.synchronizedList(new ArrayList<>());
     
     // Peak performance tracking
     private static final AtomicDouble peakTotalRps = new AtomicDouble(0);
@@ -67,7 +144,13 @@ public class Main {
 
     // Shared resources for encryption/decryption workflow
     private static volatile String testKeyId = null; // The CMK ID being tested
-    private static final ConcurrentLinkedQueue<String> ciphertextQueue = new ConcurrentLinkedQueue<>(); // Queue of ciphertexts for decryption
+    private static volatile List<TrafficClass> trafficClasses = null; // Each class owns its workers, ciphertexts and stats
+    private static volatile EventRecorder eventRecorder = null; // Per-request event log, null when disabled
+    private static volatile FaultProxy faultProxy = null; // Fault-injecting proxy, null when disabled
+    private static volatile AdaptiveConcurrencyLimiter limiter = null; // In-flight limit, null when concurrency is fixed
+    private static volatile int exitCode = 0; // Set to 2 when the run regressed against its baseline
+    private static final DecryptCache decryptCache = DECRYPT_CACHE
+        ? new DecryptCache(CACHE_MAX_MB * 1024 * 1024, CACHE_TTL_SECONDS) : null;
 
     /**
      * Main entry point for the KMS stress testing application.
@@ -79,17 +162,78 @@ public class Main {
      * 4. Run stress test for specified duration
      * 5. Report final statistics
      * 6. Clean up temporary resources
+     * 
+     * Passing {@code analyze-events <file>} as arguments runs the offline event log analyzer instead,
+     * {@code compare <run> <baseline>} compares two stored runs (exit code 2 on regression), and
+     * {@code set-baseline <run> <name>} promotes a stored run to a named baseline.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && ("compare".equals(args[0]) || "set-baseline".equals(args[0]))) {
+            System.exit(runResultCommand(args));
+        }
+        if (args.length > 0 && "analyze-events".equals(args[0])) {
+            if (args.length < 2) {
+                log.error("Usage: analyze-events <event-log-file>");
+                System.exit(1);
+            }
+            try {
+                EventLogAnalyzer.analyze(Paths.get(args[1]));
+            } catch (Exception e) {
+                log.error("Event log analysis failed: {}", e.getMessage(), e);
+                System.exit(1);
+            }
+            return;
+        }
+        
         log.info("Starting KMS Stress Test");
         log.info("Region: {}, Role: {}", REGION, ROLE);
         log.info("Duration: {}s, Concurrency: {}, Encrypt/Decrypt Ratio: {}/{}", 
                  DURATION_SECONDS, CONCURRENCY, ENCRYPT_RATIO, DECRYPT_RATIO);
         
+        // A run without explicit traffic classes is a single class built from the global settings
+        if (TRAFFIC_CLASSES.trim().isEmpty()) {
+            CiphertextPool pool = CIPHERTEXT_POOL_SIZE > 0 ? new CiphertextPool(CIPHERTEXT_POOL_SIZE, REUSE_SKEW) : null;
+            trafficClasses = Collections.singletonList(
+                new TrafficClass("default", 0, CONCURRENCY, 0, ENCRYPT_RATIO, 0, null, 0, 0, pool));
+        } else {
+            try {
+                trafficClasses = TrafficClass.parse(TRAFFIC_CLASSES, CIPHERTEXT_POOL_SIZE, REUSE_SKEW);
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid trafficClasses configuration: {}", e.getMessage());
+                System.exit(1);
+            }
+            for (TrafficClass tc : trafficClasses) {
+                log.info("Traffic class '{}': concurrency {}, rps {}, encrypt ratio {}, payload {} bytes, key {}",
+                         tc.getName(), tc.getConcurrency(), tc.getRps() > 0 ? tc.getRps() : "unlimited",
+                         tc.getEncryptRatio(), tc.getPayloadBytes(),
+                         tc.getKeyId() != null ? tc.getKeyId() : "[test key]");
+            }
+        }
+        int totalWorkers = trafficClasses.stream().mapToInt(TrafficClass::getConcurrency).sum();
+        if (ADAPTIVE_CONCURRENCY) {
+            limiter = new AdaptiveConcurrencyLimiter(LIMITER_INITIAL, LIMITER_MIN, totalWorkers,
+                                                     LIMITER_TOLERANCE, LATENCY_TARGET_MS, THROTTLE_THRESHOLD);
+            log.info("Adaptive concurrency: up to {} in flight, starting at {}, latency target {}",
+                     totalWorkers, limiter.getLimit(), LATENCY_TARGET_MS > 0 ? LATENCY_TARGET_MS + " ms" : "none");
+        }
+        
+        if (CIPHERTEXT_POOL_SIZE > 0) {
+            log.info("Ciphertext pool: {} ciphertexts, reuse skew {}", CIPHERTEXT_POOL_SIZE, REUSE_SKEW);
+        }
+        if (decryptCache != null) {
+            log.info("Decrypt cache: {} MB, TTL {}s", CACHE_MAX_MB, CACHE_TTL_SECONDS);
+        }
+        
         KmsClient client = null;
         String temporaryKeyId = null;
         
         try {
+            // Start the fault proxy first so the client can be pointed at it
+            if (FAULT_PROXY) {
+                faultProxy = new FaultProxy(FAULT_PROXY_PORT, FaultProfile.parse(FAULT_PROFILE),
+                                            FaultProxy.parseSchedule(FAULT_SCHEDULE));
+            }
+            
             // Initialize KMS client with temporary credentials from CVM metadata service
             client = initializeKmsClient();
             
@@ -105,8 +249,8 @@ public class Main {
             
             // Create fixed-size thread pool for concurrent KMS operations
             ThreadPoolExecutor executor = new ThreadPoolExecutor(
-                CONCURRENCY, // core pool size
-                CONCURRENCY, // maximum pool size  
+                totalWorkers, // core pool size
+                totalWorkers, // maximum pool size  
                 60L, // keep alive time
                 TimeUnit.SECONDS,
                 new LinkedBlockingQueue<>(),
@@ -134,42 +278,75 @@ public class Main {
             CountDownLatch startLatch = new CountDownLatch(1);
             
             // Create and submit worker threads to executor
-            List<KmsWorker> workers = new ArrayList<>(CONCURRENCY);
-            List<Future<?>> futures = new ArrayList<>(CONCURRENCY);
+            List<KmsWorker> workers = new ArrayList<>(totalWorkers);
+            List<Future<?>> futures = new ArrayList<>(totalWorkers);
 
-            for (int i = 0; i < CONCURRENCY; i++) {
-                KmsWorker worker = new KmsWorker(client, i, startLatch);
-                workers.add(worker);
-                Future<?> future = executor.submit(worker);
-                futures.add(future);
+            int workerId = 0;
+            for (TrafficClass trafficClass : trafficClasses) {
+                for (int i = 0; i < trafficClass.getConcurrency(); i++) {
+                    KmsWorker worker = new KmsWorker(client, workerId++, trafficClass, startLatch);
+                    workers.add(worker);
+                    Future<?> future = executor.submit(worker);
+                    futures.add(future);
+                }
             }
 
             // Wait for all worker threads to initialize and be ready
             int maxWaitTime = 10000; // Maximum 10 seconds to wait for thread startup
             int waitInterval = 3000;  // Check thread status every 3 seconds
             int waited = 0;
-            while (activeThreads.get() < CONCURRENCY && waited < maxWaitTime) {
+            while (activeThreads.get() < totalWorkers && waited < maxWaitTime) {
                 Thread.sleep(waitInterval);
                 waited += waitInterval;
-                log.info("Waiting for threads to start: {}/{}", activeThreads.get(), CONCURRENCY);
+                log.info("Waiting for threads to start: {}/{}", activeThreads.get(), totalWorkers);
             }
 
-            if (activeThreads.get() < CONCURRENCY) {
-                log.warn("Only {}/{} threads started successfully", activeThreads.get(), CONCURRENCY);
+            if (activeThreads.get() < totalWorkers) {
+                log.warn("Only {}/{} threads started successfully", activeThreads.get(), totalWorkers);
             } else {
-                log.info("All {} threads started successfully", CONCURRENCY);
+                log.info("All {} threads started successfully", totalWorkers);
             }
             
             log.info("All workers started. Beginning stress test in 3 seconds...");
             Thread.sleep(3000);
             
-            // Release the latch to start all workers simultaneously
+            // Open the event log before releasing workers so the first requests are captured
             long startTime = System.currentTimeMillis();
+            if (!EVENT_LOG.isEmpty()) {
+                List<String> classNames = new ArrayList<>();
+                trafficClasses.forEach(tc -> classNames.add(tc.getName()));
+                eventRecorder = new EventRecorder(Paths.get(EVENT_LOG), EVENT_LOG_MAX_MB * 1024 * 1024,
+                                                  EVENT_SAMPLE_RATE, startTime, classNames);
+            }
+            
+            // Release the latch to start all workers simultaneously
+            testStartTime = startTime;
+            trafficClasses.forEach(TrafficClass::startSchedule);
+            if (faultProxy != null) {
+                faultProxy.setTestStart(startTime);
+                // Close an interval at every window boundary so each interval ran under one profile
+                for (long boundary : faultProxy.getBoundarySeconds()) {
+                    if (boundary > 0 && boundary < DURATION_SECONDS) {
+                        statsReporter.schedule(() -> reportStats(),
+                            startTime + boundary * 1000 - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            if (limiter != null) {
+                limiter.start(LIMITER_INTERVAL_MS);
+            }
             startLatch.countDown();
             
             // Run stress test for the configured duration
             Thread.sleep(DURATION_SECONDS * 1000L);
             
+            // Close the interval series with a final partial sample before workers wind down.
+            // Run on the reporter thread so it cannot interleave with a periodic report.
+            statsReporter.submit(() -> {
+                reportStats();
+                testEndTime = System.currentTimeMillis();
+            }).get();
+            
             // Gracefully stop all worker threads
             log.info("Stress test duration completed. Stopping workers...");
             
@@ -178,6 +355,11 @@ public class Main {
                 worker.stop();
             }
             
+            // Wake workers waiting for a concurrency permit so they can see the stop signal
+            if (limiter != null) {
+                limiter.close();
+            }
+            
             // Shutdown executor and wait for threads to complete
             executor.shutdown();
             
@@ -193,14 +375,30 @@ public class Main {
                 statsReporter.shutdownNow();
             }
             
+            // Let key cleanup through the proxy without faults
+            if (faultProxy != null) {
+                faultProxy.disableFaults();
+            }
+            
             long endTime = System.currentTimeMillis();
             
+            // Finalize the event log header now that no worker is writing
+            closeEventRecorder();
+            
             // Print comprehensive final statistics report
             reportFinalStats(startTime, endTime);
             
+            // Save the run and compare it against the requested baseline
+            if (SAVE_RESULTS) {
+                saveRunResult(startTime, endTime);
+            }
+            
         } catch (Exception e) {
             log.error("Stress test failed: {}", e.getMessage(), e);
         } finally {
+            // Finalize the event log even when the run failed, so the analyzer can trust its header
+            closeEventRecorder();
+            
             // Clean up: Delete temporary key if one was created for this test
             if (client != null && temporaryKeyId != null) {
                 try {
@@ -211,33 +409,97 @@ public class Main {
                 }
             }
             
+            if (faultProxy != null) {
+                faultProxy.close();
+            }
+            
             // Allow time for cleanup to complete before exiting
             try {
                 Thread.sleep(2000);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
-            System.exit(0);
+            System.exit(exitCode);
+        }
+    }
+    
+    /**
+     * Closes the event log, if one is open. Closing twice is harmless, so this is called both
+     * on the normal path and from cleanup after a failure.
+     */
+    private static void closeEventRecorder() {
+        if (eventRecorder == null) {
+            return;
+        }
+        try {
+            eventRecorder.close();
+        } catch (IOException e) {
+            log.warn("Failed to close event log: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Runs the {@code compare} or {@code set-baseline} command against the results store.
+     * 
+     * @param args Command line arguments, starting with the command name
+     * @return Process exit code: 0 on success, 1 on error, 2 if the run regressed
+     */
+    private static int runResultCommand(String[] args) {
+        if (args.length < 3) {
+            log.error("Usage: compare <run> <baseline> | set-baseline <run> <name>");
+            return 1;
+        }
+        ResultStore store = new ResultStore(Paths.get(RESULTS_DIR));
+        try {
+            if ("set-baseline".equals(args[0])) {
+                Path baseline = store.setBaseline(args[1], args[2]);
+                log.info("Saved baseline '{}' to {}", args[2], baseline);
+                return 0;
+            }
+            boolean regression = RunComparator.compare(store.load(args[1]), store.load(args[2]), REGRESSION_THRESHOLD);
+            return regression ? 2 : 0;
+        } catch (Exception e) {
+            log.error("{} failed: {}", args[0], e.getMessage());
+            return 1;
         }
     }
     
     /**
      * Initializes KMS client using temporary credentials from CVM metadata service.
-     * Uses the internal Tencent Cloud endpoint for optimal performance.
+     * Uses the internal Tencent Cloud endpoint for optimal performance, unless another
+     * endpoint is configured. When the fault proxy is enabled, all requests go through it.
+     * 
+     * Static credentials (-DsecretId/-DsecretKey, or the TENCENTCLOUD_SECRET_ID and
+     * TENCENTCLOUD_SECRET_KEY environment variables) replace the metadata lookup, so runs
+     * against a local mock endpoint work off a CVM instance. They are read directly rather
+     * than through getConfig so they never end up in saved run results.
      * 
      * @return Configured KmsClient instance
      * @throws Exception if credential retrieval or client initialization fails
      */
     private static KmsClient initializeKmsClient() throws Exception {
-        TemporaryCredential temporaryCredential = MetadataCredentialClient.getTmpAkSkByCvmRole(ROLE);
-        Credential cred = new Credential(
-            temporaryCredential.getSecretId(), 
-            temporaryCredential.getSecretKey(), 
-            temporaryCredential.getToken()
-        );
+        String secretId = System.getProperty("secretId", System.getenv("TENCENTCLOUD_SECRET_ID"));
+        String secretKey = System.getProperty("secretKey", System.getenv("TENCENTCLOUD_SECRET_KEY"));
+        Credential cred;
+        if (secretId != null && !secretId.isEmpty() && secretKey != null && !secretKey.isEmpty()) {
+            log.info("Using static credentials instead of the CVM role");
+            cred = new Credential(secretId, secretKey);
+        } else {
+            TemporaryCredential temporaryCredential = MetadataCredentialClient.getTmpAkSkByCvmRole(ROLE);
+            cred = new Credential(
+                temporaryCredential.getSecretId(), 
+                temporaryCredential.getSecretKey(), 
+                temporaryCredential.getToken()
+            );
+        }
 
         HttpProfile httpProfile = new HttpProfile();
-        httpProfile.setEndpoint("kms.internal.tencentcloudapi.com"); // Use internal endpoint for lower latency
+        httpProfile.setEndpoint(ENDPOINT);
+        httpProfile.setProtocol(PROTOCOL);
+        if (faultProxy != null) {
+            httpProfile.setProxyHost("127.0.0.1");
+            httpProfile.setProxyPort(faultProxy.getPort());
+        }
         // Configure timeouts for performance optimization
         httpProfile.setReadTimeout(30 * 1000);  // 30 seconds read timeout
         httpProfile.setWriteTimeout(30 * 1000); // 30 seconds write timeout
@@ -362,6 +624,8 @@ public class Main {
         long decryptInPeriod = currentDecryptSuccess - lastDecrypt;
         long totalInPeriod = currentTotalSuccess - lastTotal;
         long errorsInPeriod = currentErrors - lastErrors;
+        long currentCacheHits = cacheHitCount.get();
+        long cacheHitsInPeriod = currentCacheHits - lastCacheHitCount.getAndSet(currentCacheHits);
         
         double currentEncryptRps = elapsedSeconds > 0 ? (double) encryptInPeriod / elapsedSeconds : 0;
         double currentDecryptRps = elapsedSeconds > 0 ? (double) decryptInPeriod / elapsedSeconds : 0;
@@ -380,15 +644,141 @@ public class Main {
         
         lastStatsTime = currentTime;
         
+        // Close the latency interval and, once the test is running, add it to the interval series.
+        // Intervals are cut at fault window boundaries, so the profile at the midpoint covers the interval.
+        LatencyHistogram latencyInPeriod = intervalLatency.getAndSet(new LatencyHistogram());
+        String faultLabel = faultProxy != null
+            ? faultProxy.profileAt(currentTime - elapsedMs / 2 - testStartTime).getLabel()
+            : FaultProfile.NONE.getLabel();
+        if (testStartTime > 0 && testEndTime == 0) {
+            double offsetSeconds = (currentTime - testStartTime) / 1000.0;
+            intervalSamples.add(new IntervalSample(offsetSeconds, Math.min(elapsedSeconds, offsetSeconds),
+                totalInPeriod, cacheHitsInPeriod, errorsInPeriod, latencyInPeriod, faultLabel,
+                errorClassesSinceLastReport()));
+        }
+        
         String statsMessage = String.format(
-            "STATS - Encrypt: %d (%.2fRPS) | Decrypt: %d (%.2fRPS) | Total: %d (%.2fRPS) | Errors: %d | Active: %d | Ratio: %.1f/%.1f",
+            "STATS - Encrypt: %d (%.2fRPS) | Decrypt: %d (%.2fRPS) | Total: %d (%.2fRPS) | Errors: %d | Active: %d | Ratio: %s",
             currentEncryptSuccess, currentEncryptRps,
             currentDecryptSuccess, currentDecryptRps,
             currentTotalSuccess, currentTotalRps,
             currentErrors, activeThreads.get(),
-            ENCRYPT_RATIO, DECRYPT_RATIO
+            configuredRatio()
         );
+        statsMessage += String.format(" | p99: %.2fms", latencyInPeriod.getValueAtPercentile(99) / 1e6);
+        if (decryptCache != null) {
+            statsMessage += String.format(" | Cache Hit: %.1f%% (%d KB)",
+                decryptCache.getHitRatio() * 100, decryptCache.getBytesUsed() / 1024);
+        }
+        if (faultProxy != null) {
+            statsMessage += " | Fault: " + faultLabel;
+        }
+        AdaptiveConcurrencyLimiter currentLimiter = limiter;
+        if (currentLimiter != null) {
+            statsMessage += String.format(" | Limit: %d (in-flight %d) | RTT: %.2fms (no-load %.2fms) | Throttled: %.2f%%",
+                currentLimiter.getLimit(), currentLimiter.getInFlight(),
+                currentLimiter.getLastRttMs(), currentLimiter.getNoLoadRttMs(),
+                currentLimiter.getLastThrottleRate() * 100);
+        }
         log.info(statsMessage);
+        
+        // Per-class lines use interval latency so one tenant's burst shows up in another's tail
+        List<TrafficClass> classes = trafficClasses;
+        if (classes != null && classes.size() > 1) {
+            for (TrafficClass tc : classes) {
+                LatencyHistogram interval = tc.swapIntervalLatency();
+                double classRps = elapsedSeconds > 0 ? tc.successesSinceLastCall() / elapsedSeconds : 0;
+                log.info(String.format(
+                    "  [%s] Encrypt: %d | Decrypt: %d | %.2fRPS | Errors: %d | p50: %.2fms | p99: %.2fms | max: %.2fms",
+                    tc.getName(), tc.getEncryptSuccessCount(), tc.getDecryptSuccessCount(), classRps,
+                    tc.getErrorCount(), interval.getValueAtPercentile(50) / 1e6,
+                    interval.getValueAtPercentile(99) / 1e6, interval.getMax() / 1e6));
+            }
+        }
+    }
+    
+    /**
+     * Returns the configured encrypt/decrypt ratio for reports. With several traffic classes
+     * each class has its own mix and the global ratio does not apply.
+     */
+    private static String configuredRatio() {
+        List<TrafficClass> classes = trafficClasses;
+        return classes != null && classes.size() > 1
+            ? "per class"
+            : String.format("%.1f/%.1f", ENCRYPT_RATIO, DECRYPT_RATIO);
+    }
+    
+    /**
+     * Returns the errors per error class since the previous call.
+     * Only called from the stats reporter thread.
+     */
+    private static Map<String, Long> errorClassesSinceLastReport() {
+        Map<String, Long> delta = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : errorClassCounts.entrySet()) {
+            long current = entry.getValue().get();
+            Long last = lastErrorClassCounts.put(entry.getKey(), current);
+            long inPeriod = current - (last != null ? last : 0);
+            if (inPeriod > 0) {
+                delta.put(entry.getKey(), inPeriod);
+            }
+        }
+        return delta;
+    }
+    
+    /**
+     * Maps a failed operation's exception to a short error class for reporting: the KMS
+     * error code when there is one, otherwise the kind of network failure.
+     * 
+     * @param e The exception thrown by the operation
+     * @return Error class name, e.g. "RequestLimitExceeded", "Timeout" or "ConnectionReset"
+     */
+    static String classifyError(Throwable e) {
+        if (e instanceof TencentCloudSDKException) {
+            String code = ((TencentCloudSDKException) e).getErrorCode();
+            if (code != null && !code.isEmpty()) {
+                return code;
+            }
+        }
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SocketTimeoutException) {
+                return "Timeout";
+            }
+            if (t instanceof ConnectException) {
+                return "ConnectFailed";
+            }
+            if (t instanceof SSLException) {
+                return "TlsError";
+            }
+            if (t instanceof SocketException) {
+                return "ConnectionReset";
+            }
+            if (t instanceof IOException) {
+                String kind = classifyByMessage(t);
+                return kind != null ? kind : "IOError";
+            }
+        }
+        // The SDK sometimes wraps network failures without a cause; fall back to the message
+        String kind = classifyByMessage(e);
+        return kind != null ? kind : e.getClass().getSimpleName();
+    }
+    
+    /**
+     * Returns whether an error class means KMS rejected the request for exceeding a rate limit.
+     */
+    static boolean isThrottle(String errorClass) {
+        return errorClass.contains("LimitExceeded");
+    }
+    
+    private static String classifyByMessage(Throwable t) {
+        String text = (t.getClass().getSimpleName() + " " + t.getMessage()).toLowerCase();
+        if (text.contains("timeout") || text.contains("timed out")) {
+            return "Timeout";
+        }
+        if (text.contains("reset") || text.contains("broken pipe") || text.contains("unexpected end of stream")
+                || text.contains("closed")) {
+            return "ConnectionReset";
+        }
+        return null;
     }
     
     /**
@@ -410,7 +800,8 @@ public class Main {
         double overallRps = totalRequests > 0 ? (double) totalRequests / durationSeconds : 0;
         double encryptRps = totalEncrypt > 0 ? (double) totalEncrypt / durationSeconds : 0;
         double decryptRps = totalDecrypt > 0 ? (double) totalDecrypt / durationSeconds : 0;
-        double avgLatency = totalSuccess > 0 ? (double) totalLatency.get() / totalSuccess : 0;
+        long kmsSuccess = totalSuccess - cacheHitCount.get();
+        double avgLatency = kmsSuccess > 0 ? (double) totalLatency.get() / kmsSuccess : 0;
         double successRate = totalRequests > 0 ? (double) totalSuccess / totalRequests * 100 : 0;
         
         // Calculate actual operation ratio
@@ -421,7 +812,7 @@ public class Main {
             "=========================================%n" +
             "STRESS TEST COMPLETE%n" +
             "Test Key: %s%n" +
-            "Operation Ratio: %.1f/%.1f (Config) | %.1f/%.1f (Actual)%n" +
+            "Operation Ratio: %s (Config) | %.1f/%.1f (Actual)%n" +
             "=========================================%n" +
             "Duration: %.2f seconds%n" +
             "Total Requests: %d%n" +
@@ -433,25 +824,267 @@ public class Main {
             "Peak Total RPS: %.2f%n" +
             "Peak Encrypt RPS: %.2f%n" +
             "Peak Decrypt RPS: %.2f%n" +
-            "Average Latency: %.2f ms%n" +
+            "Average Latency: %.2f ms%s%n" +
             "=========================================",
-            testKeyId, ENCRYPT_RATIO, DECRYPT_RATIO, actualEncryptRatio, actualDecryptRatio,
+            testKeyId, configuredRatio(), actualEncryptRatio, actualDecryptRatio,
             durationSeconds, totalRequests, totalSuccess, successRate, totalErrors,
             totalEncrypt, encryptRps, totalDecrypt, decryptRps,
-            overallRps, peakTotalRps.get(), peakEncryptRps.get(), peakDecryptRps.get(), avgLatency
+            overallRps, peakTotalRps.get(), peakEncryptRps.get(), peakDecryptRps.get(), avgLatency,
+            decryptCache != null ? " (KMS calls, cache hits excluded)" : ""
         );
         
         log.info(finalReport);
+        
+        if (!errorClassCounts.isEmpty()) {
+            StringBuilder errorReport = new StringBuilder(String.format("ERRORS BY CLASS%n"));
+            for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(errorClassCounts).entrySet()) {
+                errorReport.append(String.format("%s: %d%n", entry.getKey(), entry.getValue().get()));
+            }
+            errorReport.append("=========================================");
+            log.info(errorReport.toString());
+        }
+        
+        if (faultProxy != null) {
+            reportFaultWindows();
+        }
+        
+        if (limiter != null) {
+            List<Integer> history = limiter.getLimitHistory();
+            int minSeen = history.stream().mapToInt(Integer::intValue).min().orElse(limiter.getLimit());
+            int maxSeen = history.stream().mapToInt(Integer::intValue).max().orElse(limiter.getLimit());
+            String limiterReport = String.format(
+                "ADAPTIVE CONCURRENCY%n" +
+                "Final Limit: %d (range seen %d-%d, allowed %d-%d)%n" +
+                "No-load RTT: %.2f ms | Last RTT: %.2f ms | Latency Target: %s%n" +
+                "Recommended Concurrency: %d (smallest limit reaching 95%% of peak goodput %.2f RPS)%n" +
+                "=========================================",
+                limiter.getLimit(), minSeen, maxSeen, limiter.getMinLimit(), limiter.getMaxLimit(),
+                limiter.getNoLoadRttMs(), limiter.getLastRttMs(),
+                LATENCY_TARGET_MS > 0 ? LATENCY_TARGET_MS + " ms" : "none",
+                limiter.getRecommendedConcurrency(), limiter.getPeakGoodput()
+            );
+            log.info(limiterReport);
+        }
+        
+        if (trafficClasses.size() > 1) {
+            StringBuilder classReport = new StringBuilder(String.format("TRAFFIC CLASSES%n"));
+            for (TrafficClass tc : trafficClasses) {
+                long classSuccess = tc.getSuccessCount();
+                long classRequests = classSuccess + tc.getErrorCount();
+                LatencyHistogram latency = tc.getLatency();
+                classReport.append(String.format(
+                    "[%s] Requests: %d | Successful: %d (%.2f%%) | Errors: %d | Throttled: %d%s%s%n" +
+                    "    Encrypt: %d (%.2f RPS) | Decrypt: %d (%.2f RPS) | Total: %.2f RPS%n" +
+                    "    Latency p50: %.2f ms | p90: %.2f ms | p99: %.2f ms | p99.9: %.2f ms | max: %.2f ms%n",
+                    tc.getName(), classRequests, classSuccess,
+                    classRequests > 0 ? (double) classSuccess / classRequests * 100 : 0, tc.getErrorCount(),
+                    tc.getThrottledCount(),
+                    decryptCache != null ? " | Cache Hits: " + tc.getCacheHitCount() : "",
+                    tc.hasBurstSchedule() ? " | Burst: " + tc.getBurstSchedule() + "s" : "",
+                    tc.getEncryptSuccessCount(), tc.getEncryptSuccessCount() / durationSeconds,
+                    tc.getDecryptSuccessCount(), tc.getDecryptSuccessCount() / durationSeconds,
+                    classSuccess / durationSeconds,
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(90) / 1e6,
+                    latency.getValueAtPercentile(99) / 1e6, latency.getValueAtPercentile(99.9) / 1e6,
+                    latency.getMax() / 1e6));
+                Map<String, Long> classErrors = tc.getErrorClasses();
+                if (!classErrors.isEmpty()) {
+                    StringBuilder errors = new StringBuilder();
+                    classErrors.forEach((errorClass, count) ->
+                        errors.append(errors.length() > 0 ? ", " : "").append(errorClass).append(": ").append(count));
+                    classReport.append(String.format("    Errors by class: %s%n", errors));
+                }
+            }
+            classReport.append("=========================================");
+            log.info(classReport.toString());
+        }
+        
+        if (decryptCache != null) {
+            int poolSize = 0;
+            int poolCapacity = 0;
+            for (TrafficClass tc : trafficClasses) {
+                if (tc.getCiphertextPool() != null) {
+                    poolSize += tc.getCiphertextPool().size();
+                    poolCapacity += tc.getCiphertextPool().capacity();
+                }
+            }
+            long hits = cacheHitCount.get();
+            long kmsDecrypts = Math.max(0, totalDecrypt - hits);
+            LatencyHistogram effectiveLatency = new LatencyHistogram();
+            effectiveLatency.merge(kmsDecryptLatency);
+            effectiveLatency.merge(cacheHitLatency);
+            String cacheReport = String.format(
+                "DECRYPT CACHE%n" +
+                "Ciphertext Pool: %s%n" +
+                "Hit Ratio: %.2f%% (%d hits / %d misses)%n" +
+                "Memory Used: %.2f MB of %.2f MB (%d entries)%n" +
+                "Evictions: %d | Expirations: %d%n" +
+                "KMS Decrypt Calls Avoided: %d%n" +
+                "KMS Decrypt Calls: %d (%.2f RPS)%n" +
+                "Effective Decrypts: %d (%.2f RPS)%n" +
+                "KMS Decrypt Latency p50/p99/p99.9: %.2f/%.2f/%.2f ms%n" +
+                "Cache Hit Latency p50/p99/p99.9: %.3f/%.3f/%.3f ms%n" +
+                "Effective Decrypt Latency p50/p99/p99.9: %.2f/%.2f/%.2f ms%n" +
+                "=========================================",
+                poolCapacity > 0 ? String.format("%d/%d (skew %.2f)", poolSize, poolCapacity, REUSE_SKEW) : "disabled",
+                decryptCache.getHitRatio() * 100, hits, decryptCache.getMissCount(),
+                decryptCache.getBytesUsed() / (1024.0 * 1024.0), decryptCache.getMaxBytes() / (1024.0 * 1024.0),
+                decryptCache.getEntryCount(),
+                decryptCache.getEvictionCount(), decryptCache.getExpirationCount(),
+                hits,
+                kmsDecrypts, kmsDecrypts / durationSeconds,
+                totalDecrypt, decryptRps,
+                kmsDecryptLatency.getValueAtPercentile(50) / 1e6, kmsDecryptLatency.getValueAtPercentile(99) / 1e6,
+                kmsDecryptLatency.getValueAtPercentile(99.9) / 1e6,
+                cacheHitLatency.getValueAtPercentile(50) / 1e6, cacheHitLatency.getValueAtPercentile(99) / 1e6,
+                cacheHitLatency.getValueAtPercentile(99.9) / 1e6,
+                effectiveLatency.getValueAtPercentile(50) / 1e6, effectiveLatency.getValueAtPercentile(99) / 1e6,
+                effectiveLatency.getValueAtPercentile(99.9) / 1e6
+            );
+            log.info(cacheReport);
+        }
+    }
+    
+    /**
+     * Saves the run to the results store and, if a baseline is configured, compares against it.
+     * Failures are logged rather than thrown so they never hide the final report.
+     * 
+     * @param startTime Test start time in milliseconds
+     * @param endTime Test end time in milliseconds
+     */
+    private static void saveRunResult(long startTime, long endTime) {
+        RunResult result = new RunResult();
+        result.setRunId(RUN_NAME.isEmpty()
+            ? "run-" + DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault())
+                .format(Instant.ofEpochMilli(startTime))
+            : RUN_NAME);
+        result.setStartTime(Instant.ofEpochMilli(startTime).toString());
+        result.setDurationSeconds((endTime - startTime) / 1000.0);
+        synchronized (effectiveConfig) {
+            result.setConfig(new TreeMap<>(effectiveConfig));
+        }
+        result.setEnvironment(environmentDetails());
+        
+        long totalSuccess = totalSuccessCount.get();
+        long totalErrors = errorCount.get();
+        result.setSuccessCount(totalSuccess);
+        result.setErrorCount(totalErrors);
+        result.setOverallRps(endTime > startTime ? (totalSuccess + totalErrors) * 1000.0 / (endTime - startTime) : 0);
+        result.setPeakRps(peakTotalRps.get());
+        for (Map.Entry<String, AtomicLong> entry : errorClassCounts.entrySet()) {
+            result.getErrorClasses().put(entry.getKey(), entry.getValue().get());
+        }
+        synchronized (intervalSamples) {
+            result.setIntervals(new ArrayList<>(intervalSamples));
+        }
+        
+        // The overall distribution is the merge of the per-class histograms
+        LatencyHistogram overall = new LatencyHistogram();
+        for (TrafficClass tc : trafficClasses) {
+            overall.merge(tc.getLatency());
+            result.getClassLatency().put(tc.getName(), RunResult.HistogramSnapshot.of(tc.getLatency()));
+        }
+        result.setLatency(RunResult.HistogramSnapshot.of(overall));
+        if (decryptCache != null) {
+            result.setCacheHitCount(cacheHitCount.get());
+            result.setCacheHitLatency(RunResult.HistogramSnapshot.of(cacheHitLatency));
+        }
+        
+        ResultStore store = new ResultStore(Paths.get(RESULTS_DIR));
+        try {
+            Path file = store.save(result);
+            log.info("Run result saved to {} (run id {})", file, result.getRunId());
+        } catch (Exception e) {
+            log.warn("Failed to save run result: {}", e.getMessage());
+            return;
+        }
+        
+        if (!BASELINE.isEmpty()) {
+            try {
+                if (RunComparator.compare(result, store.load(BASELINE), REGRESSION_THRESHOLD)) {
+                    exitCode = 2;
+                }
+            } catch (Exception e) {
+                log.warn("Failed to compare against baseline '{}': {}", BASELINE, e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Collects the details of the machine and runtime that affect results, so a comparison
+     * can show when two runs did not execute under the same conditions.
+     */
+    private static Map<String, String> environmentDetails() {
+        Map<String, String> environment = new TreeMap<>();
+        environment.put("javaVersion", System.getProperty("java.version"));
+        environment.put("javaVm", System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+        environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"));
+        environment.put("arch", System.getProperty("os.arch"));
+        environment.put("cpus", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        environment.put("maxHeapMb", String.valueOf(Runtime.getRuntime().maxMemory() / (1024 * 1024)));
+        environment.put("sdkVersion", AbstractClient.SDK_VERSION);
+        try {
+            environment.put("host", InetAddress.getLocalHost().getHostName());
+        } catch (IOException e) {
+            environment.put("host", "unknown");
+        }
+        return environment;
+    }
+    
+    /**
+     * Reports throughput, errors and latency for each stretch of the test with the same
+     * active fault profile, built from the interval series.
+     */
+    private static void reportFaultWindows() {
+        StringBuilder report = new StringBuilder(String.format(
+            "FAULT INJECTION%n" +
+            "Proxy Connections: %d | Resets: %d | Stalls: %d | Half-open: %d%n",
+            faultProxy.getConnectionCount(), faultProxy.getResetCount(),
+            faultProxy.getStallCount(), faultProxy.getHalfOpenCount()));
+        
+        List<IntervalSample> samples;
+        synchronized (intervalSamples) {
+            samples = new ArrayList<>(intervalSamples);
+        }
+        
+        int i = 0;
+        while (i < samples.size()) {
+            // Group consecutive intervals that ran under the same fault profile
+            String label = samples.get(i).getFaultLabel();
+            double windowStart = samples.get(i).getOffsetSeconds() - samples.get(i).getDurationSeconds();
+            double windowEnd = windowStart;
+            double duration = 0;
+            long successes = 0;
+            long errors = 0;
+            double worstP99 = 0;
+            Map<String, Long> errorClasses = new LinkedHashMap<>();
+            
+            for (; i < samples.size() && samples.get(i).getFaultLabel().equals(label); i++) {
+                IntervalSample sample = samples.get(i);
+                windowEnd = sample.getOffsetSeconds();
+                duration += sample.getDurationSeconds();
+                successes += sample.getSuccessCount();
+                errors += sample.getErrorCount();
+                worstP99 = Math.max(worstP99, sample.getP99Ms());
+                sample.getErrorClasses().forEach((k, v) -> errorClasses.merge(k, v, Long::sum));
+            }
+            
+            report.append(String.format("[%5.0fs - %5.0fs] %-30s | %.2f RPS | Errors: %d %s | Worst p99: %.2f ms%n",
+                windowStart, windowEnd, label, duration > 0 ? successes / duration : 0,
+                errors, errorClasses.isEmpty() ? "" : errorClasses.toString(), worstP99));
+        }
+        report.append("=========================================");
+        log.info(report.toString());
     }
     
     // Encryption operation
-    private static String performEncryption(KmsClient client, String plaintext) throws Exception {
+    private static String performEncryption(KmsClient client, String keyId, String plaintext) throws Exception {
         String plaintextBase64 = Base64.getEncoder().encodeToString(
             plaintext.getBytes(StandardCharsets.UTF_8)
         );
 
         EncryptRequest req = new EncryptRequest();
-        req.setKeyId(testKeyId);
+        req.setKeyId(keyId);
         req.setPlaintext(plaintextBase64);
 
         EncryptResponse resp = client.Encrypt(req);
@@ -479,17 +1112,25 @@ public class Main {
     /**
      * Worker thread that performs concurrent KMS operations.
      * Each worker runs continuously until signaled to stop, alternating between
-     * encryption and decryption operations based on configured ratios.
+     * encryption and decryption operations based on its traffic class's ratio.
      */
     static class KmsWorker implements Runnable {
         private final KmsClient client;
         private final int workerId;
+        private final TrafficClass trafficClass;
+        private final String payload; // Fixed plaintext body when the class sets a payload size
         private final CountDownLatch startLatch;
         private volatile boolean running = true;
         
-        public KmsWorker(KmsClient client, int workerId, CountDownLatch startLatch) {
+        // Details of the operation in progress, written to the event log when it completes
+        private byte operation;
+        private int payloadSize;
+        
+        public KmsWorker(KmsClient client, int workerId, TrafficClass trafficClass, CountDownLatch startLatch) {
             this.client = client;
             this.workerId = workerId;
+            this.trafficClass = trafficClass;
+            this.payload = randomPayload(trafficClass.getPayloadBytes());
             this.startLatch = startLatch;
         }
         
@@ -504,22 +1145,50 @@ public class Main {
                 
                 // Main operation loop - continues until stopped or interrupted
                 while (running && !Thread.currentThread().isInterrupted()) {
+                    // Rate-limited and bursty classes and the concurrency limiter wait here, outside the measured latency
+                    if (!trafficClass.awaitPermit()) {
+                        continue;
+                    }
+                    AdaptiveConcurrencyLimiter permits = limiter;
+                    if (permits != null && !permits.acquire()) {
+                        break;
+                    }
+                    long startNanos = System.nanoTime();
+                    // Operation and payload size are filled in as soon as they are known, for the event log
+                    operation = EventRecorder.OP_ENCRYPT;
+                    payloadSize = 0;
                     try {
-                        long startTime = System.currentTimeMillis();
-                        
                         // Determine operation type based on configured ratios
                         // If no ciphertexts are available for decryption, default to encryption
                         double randomValue = Math.random();
-                        if (randomValue < ENCRYPT_RATIO || ciphertextQueue.isEmpty()) {
+                        if (randomValue < trafficClass.getEncryptRatio() || !trafficClass.hasCiphertexts()) {
                             // Perform encryption
-                            performEncryptionOperation(startTime);
+                            performEncryptionOperation(startNanos);
                         } else {
                             // Perform decryption
-                            performDecryptionOperation(startTime);
+                            performDecryptionOperation(startNanos);
+                        }
+                        recordEvent(EventRecorder.OUTCOME_SUCCESS, startNanos);
+                        if (permits != null) {
+                            // Cache hits never reach KMS, and their microsecond RTT would pass for no-load latency
+                            if (operation == EventRecorder.OP_DECRYPT_CACHED) {
+                                permits.releaseWithoutSample();
+                            } else {
+                                permits.release(System.nanoTime() - startNanos, false);
+                            }
                         }
                         
                     } catch (Exception e) {
+                        String errorClass = classifyError(e);
+                        boolean throttled = isThrottle(errorClass);
+                        // Return the permit before the error pause below
+                        if (permits != null) {
+                            permits.release(System.nanoTime() - startNanos, throttled);
+                        }
                         errorCount.incrementAndGet();
+                        errorClassCounts.computeIfAbsent(errorClass, k -> new AtomicLong()).incrementAndGet();
+                        trafficClass.recordError(errorClass, throttled);
+                        recordEvent(throttled ? EventRecorder.OUTCOME_THROTTLED : EventRecorder.OUTCOME_ERROR, startNanos);
                         // Log errors periodically to avoid flooding logs
                         if (errorCount.get() % 100 == 0) {
                             log.debug("Worker {} operation failed: {}", workerId, e.getMessage());
@@ -548,39 +1217,111 @@ public class Main {
         /**
          * Performs an encryption operation and adds the ciphertext to the queue for later decryption.
          * 
-         * @param startTime Operation start time for latency calculation
+         * @param startNanos Operation start time (System.nanoTime) for latency calculation
          * @throws Exception if encryption fails
          */
-        private void performEncryptionOperation(long startTime) throws Exception {
-            String plaintext = "quick brown fox-5-1700234567890" + workerId + "-" + System.currentTimeMillis();
-            String ciphertext = performEncryption(client, plaintext);
+        private void performEncryptionOperation(long startNanos) throws Exception {
+            String plaintext = payload != null
+                ? payload
+                : "quick brown fox-5-1700234567890" + workerId + "-" + System.currentTimeMillis();
+            String keyId = trafficClass.getKeyId() != null ? trafficClass.getKeyId() : testKeyId;
+            operation = EventRecorder.OP_ENCRYPT;
+            payloadSize = plaintext.length();
+            String ciphertext = performEncryption(client, keyId, plaintext);
             
-            // Add to ciphertext queue for future decryption operations (limit queue size to prevent memory issues)
-            if (ciphertextQueue.size() < 1000) {
-                ciphertextQueue.offer(ciphertext);
-            }
+            // Keep the ciphertext for future decryption operations of this class
+            trafficClass.addCiphertext(ciphertext);
             
-            long latency = System.currentTimeMillis() - startTime;
-            encryptSuccessCount.incrementAndGet();
-            totalSuccessCount.incrementAndGet();
-            totalLatency.addAndGet(latency);
+            recordSuccess(true, System.nanoTime() - startNanos);
         }
         
-        private void performDecryptionOperation(long startTime) throws Exception {
-            String ciphertextToDecrypt = ciphertextQueue.poll();
+        private void performDecryptionOperation(long startNanos) throws Exception {
+            String ciphertextToDecrypt = trafficClass.nextCiphertext();
             
             // If no ciphertext is available in queue, perform encryption instead
             if (ciphertextToDecrypt == null) {
-                performEncryptionOperation(startTime);
+                performEncryptionOperation(startNanos);
                 return;
             }
             
-            String decryptedText = performDecryption(client, ciphertextToDecrypt);
+            operation = EventRecorder.OP_DECRYPT;
+            payloadSize = ciphertextToDecrypt.length();
+            String decryptedText = decryptCache != null ? decryptCache.get(ciphertextToDecrypt) : null;
+            if (decryptedText != null) {
+                operation = EventRecorder.OP_DECRYPT_CACHED;
+                recordCacheHit(System.nanoTime() - startNanos);
+                return;
+            }
             
-            long latency = System.currentTimeMillis() - startTime;
+            decryptedText = performDecryption(client, ciphertextToDecrypt);
+            if (decryptCache != null) {
+                decryptCache.put(ciphertextToDecrypt, decryptedText);
+            }
+            recordSuccess(false, System.nanoTime() - startNanos);
+        }
+        
+        /**
+         * Updates global, interval and traffic class statistics for a successful KMS call.
+         * 
+         * @param encrypt True for encryption, false for decryption
+         * @param latencyNanos Operation latency in nanoseconds
+         */
+        private void recordSuccess(boolean encrypt, long latencyNanos) {
+            if (encrypt) {
+                encryptSuccessCount.incrementAndGet();
+            } else {
+                decryptSuccessCount.incrementAndGet();
+            }
+            totalSuccessCount.incrementAndGet();
+            totalLatency.addAndGet(latencyNanos / 1_000_000);
+            intervalLatency.get().record(latencyNanos);
+            if (!encrypt) {
+                kmsDecryptLatency.record(latencyNanos);
+            }
+            trafficClass.recordSuccess(encrypt, latencyNanos);
+        }
+        
+        /**
+         * Updates statistics for a decrypt served by the cache. It counts towards throughput,
+         * but its latency goes to its own histogram so the KMS latency series stay comparable.
+         * 
+         * @param latencyNanos Lookup latency in nanoseconds
+         */
+        private void recordCacheHit(long latencyNanos) {
             decryptSuccessCount.incrementAndGet();
             totalSuccessCount.incrementAndGet();
-            totalLatency.addAndGet(latency);
+            cacheHitCount.incrementAndGet();
+            cacheHitLatency.record(latencyNanos);
+            trafficClass.recordCacheHit();
+        }
+        
+        /**
+         * Writes the just-completed operation to the event log, if one is enabled.
+         * 
+         * @param outcome Outcome code (EventRecorder.OUTCOME_*)
+         * @param startNanos Operation start time (System.nanoTime)
+         */
+        private void recordEvent(byte outcome, long startNanos) {
+            EventRecorder recorder = eventRecorder;
+            if (recorder != null) {
+                recorder.record(workerId, trafficClass.getIndex(), operation, outcome,
+                                System.nanoTime() - startNanos, payloadSize);
+            }
+        }
+        
+        /**
+         * Builds a printable plaintext of the given size, or returns null for the default plaintext.
+         */
+        private static String randomPayload(int size) {
+            if (size <= 0) {
+                return null;
+            }
+            char[] chars = new char[size];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < size; i++) {
+                chars[i] = (char) ('a' + random.nextInt(26));
+            }
+            return new String(chars);
         }
         
         /**
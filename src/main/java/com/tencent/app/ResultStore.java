@@ -0,0 +1,115 @@
+package com.tencent.app;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Local store of run results, kept as one JSON file per run.
+ *
+ * Layout under the results directory:
+ * <ul>
+ *   <li>{@code runs/<runId>.json} - every saved run</li>
+ *   <li>{@code baselines/<name>.json} - copies of runs promoted to named baselines</li>
+ * </ul>
+ * A run can be referred to by file path, baseline name or run id, in that order.
+ */
+public class ResultStore {
+
+    private static final String RUNS_DIR = "runs";
+    private static final String BASELINES_DIR = "baselines";
+    private static final String SUFFIX = ".json";
+
+    private final Path root;
+    private final ObjectMapper mapper;
+
+    /**
+     * @param root Results directory (created on first save)
+     */
+    public ResultStore(Path root) {
+        this.root = root;
+        this.mapper = new ObjectMapper();
+        this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * Saves a run under its run id, replacing any earlier run with the same id.
+     *
+     * @param result The run to save
+     * @return The file the run was written to
+     * @throws IOException if the file cannot be written
+     */
+    public Path save(RunResult result) throws IOException {
+        Path file = root.resolve(RUNS_DIR).resolve(fileName(result.getRunId()));
+        write(file, result);
+        return file;
+    }
+
+    /**
+     * Stores a copy of a run as a named baseline, replacing any baseline with that name.
+     *
+     * @param reference File path, baseline name or run id of the run to promote
+     * @param name Baseline name
+     * @return The baseline file
+     * @throws IOException if the run cannot be found or the baseline cannot be written
+     */
+    public Path setBaseline(String reference, String name) throws IOException {
+        Path source = resolve(reference);
+        Path target = root.resolve(BASELINES_DIR).resolve(fileName(name));
+        Files.createDirectories(target.getParent());
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    /**
+     * Loads a run.
+     *
+     * @param reference File path, baseline name or run id
+     * @return The stored run
+     * @throws IOException if the run cannot be found or parsed
+     */
+    public RunResult load(String reference) throws IOException {
+        return mapper.readValue(resolve(reference).toFile(), RunResult.class);
+    }
+
+    /**
+     * Finds the file for a run reference.
+     */
+    private Path resolve(String reference) throws IOException {
+        Path direct = Path.of(reference);
+        if (Files.isRegularFile(direct)) {
+            return direct;
+        }
+        if (reference.contains("/") || reference.contains("\\")) {
+            throw new IOException("No such result file: " + reference);
+        }
+        Path baseline = root.resolve(BASELINES_DIR).resolve(fileName(reference));
+        if (Files.isRegularFile(baseline)) {
+            return baseline;
+        }
+        Path run = root.resolve(RUNS_DIR).resolve(fileName(reference));
+        if (Files.isRegularFile(run)) {
+            return run;
+        }
+        throw new IOException("No run, baseline or file named '" + reference + "' under " + root);
+    }
+
+    private void write(Path file, RunResult result) throws IOException {
+        Files.createDirectories(file.getParent());
+        // Write to a temporary file first so an interrupted save never leaves a truncated result
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        mapper.writeValue(temp.toFile(), result);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String fileName(String name) {
+        if (name == null || name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid run or baseline name: " + name);
+        }
+        return name + SUFFIX;
+    }
+}
@@ -0,0 +1,279 @@
+package com.tencent.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.ToDoubleFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares a run against a baseline and flags statistically significant regressions.
+ *
+ * Throughput, p99 and p99.9 are compared on their interval series rather than on single
+ * end-of-run numbers: each interval is one observation, and a Welch t-interval on the
+ * difference of the means tells whether the change is larger than the noise between
+ * intervals. A metric is flagged only when its 95% confidence interval excludes zero and
+ * the relative change is at least the configured threshold. Consecutive intervals are not
+ * fully independent, so the confidence intervals come out somewhat narrower than they should;
+ * the threshold keeps that from turning small shifts into alerts.
+ */
+public class RunComparator {
+    private static final Logger log = LoggerFactory.getLogger(RunComparator.class);
+
+    /** Two-sided 95% quantile of the standard normal distribution */
+    private static final double Z_975 = 1.959963984540054;
+
+    /** Settings that name or locate a run and are expected to differ between runs */
+    private static final Set<String> RUN_IDENTITY_KEYS = Set.of("runName", "resultsDir", "baseline", "saveResults");
+
+    /**
+     * Outcome of comparing one metric.
+     */
+    enum Verdict {
+        REGRESSION, IMPROVED, NO_CHANGE, INSUFFICIENT_DATA
+    }
+
+    /**
+     * Logs a comparison report of a run against a baseline.
+     *
+     * @param run The run under test
+     * @param baseline The run to compare against
+     * @param threshold Smallest relative change (e.g. 0.05 for 5%) that counts as a regression
+     * @return True if any metric regressed significantly
+     */
+    public static boolean compare(RunResult run, RunResult baseline, double threshold) {
+        List<IntervalSample> runIntervals = steadyIntervals(run.getIntervals());
+        List<IntervalSample> baselineIntervals = steadyIntervals(baseline.getIntervals());
+
+        StringBuilder report = new StringBuilder(String.format(
+            "=========================================%n" +
+            "RUN COMPARISON%n" +
+            "Run:      %s (%s, %d intervals)%n" +
+            "Baseline: %s (%s, %d intervals)%n" +
+            "Regression threshold: %.1f%%, 95%% confidence%n" +
+            "=========================================%n" +
+            "%-12s %22s %22s %9s %22s  %s%n",
+            run.getRunId(), run.getStartTime(), runIntervals.size(),
+            baseline.getRunId(), baseline.getStartTime(), baselineIntervals.size(),
+            threshold * 100,
+            "Metric", "Run", "Baseline", "Change", "95% CI", "Verdict"));
+
+        // Intervals without a single success (full throttling, outages) count as zero throughput,
+        // but have no latency distribution to compare
+        List<IntervalSample> runLatencyIntervals = withSuccesses(runIntervals);
+        List<IntervalSample> baselineLatencyIntervals = withSuccesses(baselineIntervals);
+
+        boolean regression = false;
+        regression |= appendMetric(report, "RPS", runIntervals, baselineIntervals,
+                                   IntervalSample::getRps, true, threshold);
+        regression |= appendMetric(report, "p99 (ms)", runLatencyIntervals, baselineLatencyIntervals,
+                                   IntervalSample::getP99Ms, false, threshold);
+        regression |= appendMetric(report, "p99.9 (ms)", runLatencyIntervals, baselineLatencyIntervals,
+                                   IntervalSample::getP999Ms, false, threshold);
+
+        // Whole-run percentiles from the merged histograms, as point estimates
+        report.append(String.format("-----------------------------------------%n"));
+        appendPercentiles(report, "Overall", run.getLatency(), baseline.getLatency());
+        for (Map.Entry<String, RunResult.HistogramSnapshot> entry : run.getClassLatency().entrySet()) {
+            RunResult.HistogramSnapshot other = baseline.getClassLatency().get(entry.getKey());
+            if (other != null && run.getClassLatency().size() > 1) {
+                appendPercentiles(report, "Class " + entry.getKey(), entry.getValue(), other);
+            }
+        }
+        report.append(String.format("Success Rate: %.2f%% (run) vs %.2f%% (baseline)%n",
+            successRate(run), successRate(baseline)));
+
+        appendDifferences(report, "Config", run.getConfig(), baseline.getConfig(), RUN_IDENTITY_KEYS);
+        appendDifferences(report, "Environment", run.getEnvironment(), baseline.getEnvironment(), Set.of());
+
+        report.append(String.format("Result: %s%n", regression ? "REGRESSION DETECTED" : "no significant regression"));
+        report.append("=========================================");
+        log.info(report.toString());
+        return regression;
+    }
+
+    /**
+     * Compares one metric and appends its line to the report.
+     *
+     * @return True if the metric regressed
+     */
+    private static boolean appendMetric(StringBuilder report, String name, List<IntervalSample> run,
+                                        List<IntervalSample> baseline, ToDoubleFunction<IntervalSample> metric,
+                                        boolean higherIsBetter, double threshold) {
+        double[] a = run.stream().mapToDouble(metric).toArray();
+        double[] b = baseline.stream().mapToDouble(metric).toArray();
+        double meanA = mean(a);
+        double meanB = mean(b);
+
+        if (a.length < 2 || b.length < 2) {
+            report.append(String.format("%-12s %22.2f %22.2f %9s %22s  %s%n",
+                name, meanA, meanB, "-", "-", label(Verdict.INSUFFICIENT_DATA)));
+            return false;
+        }
+
+        double varA = variance(a, meanA);
+        double varB = variance(b, meanB);
+        double[] ci = welchInterval(meanA, varA, a.length, meanB, varB, b.length);
+        double scale = meanB != 0 ? Math.abs(meanB) : 1;
+        double change = (meanA - meanB) / scale;
+        Verdict verdict = verdict(change, ci[0] / scale, ci[1] / scale, higherIsBetter, threshold);
+
+        report.append(String.format("%-12s %10.2f +/- %-7.2f %10.2f +/- %-7.2f %+8.1f%% [%+8.1f%%, %+8.1f%%]  %s%n",
+            name, meanA, Math.sqrt(varA), meanB, Math.sqrt(varB), change * 100,
+            ci[0] / scale * 100, ci[1] / scale * 100, label(verdict)));
+        return verdict == Verdict.REGRESSION;
+    }
+
+    /**
+     * Decides whether a change is a regression, an improvement or noise.
+     *
+     * @param change Relative change of the means (run - baseline) / baseline
+     * @param low Lower bound of the relative confidence interval
+     * @param high Upper bound of the relative confidence interval
+     * @param higherIsBetter True for throughput, false for latency
+     * @param threshold Smallest relative change that counts
+     */
+    static Verdict verdict(double change, double low, double high, boolean higherIsBetter, double threshold) {
+        boolean significant = low > 0 || high < 0;
+        if (!significant || Math.abs(change) < threshold) {
+            return Verdict.NO_CHANGE;
+        }
+        boolean worse = higherIsBetter ? change < 0 : change > 0;
+        return worse ? Verdict.REGRESSION : Verdict.IMPROVED;
+    }
+
+    /**
+     * 95% Welch confidence interval for the difference of two means (a - b), with the
+     * Welch-Satterthwaite approximation for the degrees of freedom.
+     *
+     * @return Lower and upper bound
+     */
+    static double[] welchInterval(double meanA, double varA, int nA, double meanB, double varB, int nB) {
+        double diff = meanA - meanB;
+        double seA = varA / nA;
+        double seB = varB / nB;
+        double se = Math.sqrt(seA + seB);
+        if (se == 0) {
+            return new double[] {diff, diff};
+        }
+        double df = (seA + seB) * (seA + seB) / (seA * seA / (nA - 1) + seB * seB / (nB - 1));
+        double margin = tQuantile975(df) * se;
+        return new double[] {diff - margin, diff + margin};
+    }
+
+    /**
+     * Two-sided 95% quantile of Student's t distribution, from the Cornish-Fisher expansion
+     * around the normal quantile (Abramowitz and Stegun 26.7.5). Within 1% of the exact
+     * value from two degrees of freedom up.
+     *
+     * @param df Degrees of freedom (may be fractional)
+     */
+    static double tQuantile975(double df) {
+        double v = Math.max(1, df);
+        double z = Z_975;
+        double z2 = z * z;
+        double g1 = (z2 + 1) * z / 4;
+        double g2 = ((5 * z2 + 16) * z2 + 3) * z / 96;
+        double g3 = (((3 * z2 + 19) * z2 + 17) * z2 - 15) * z / 384;
+        double g4 = ((((79 * z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) * z / 92160;
+        return z + g1 / v + g2 / (v * v) + g3 / (v * v * v) + g4 / (v * v * v * v);
+    }
+
+    /**
+     * Drops intervals shorter than half the longest one: the partial first and last intervals
+     * and those cut short at fault window boundaries, whose rates and percentiles come from
+     * too few requests to compare.
+     */
+    private static List<IntervalSample> steadyIntervals(List<IntervalSample> intervals) {
+        double longest = intervals.stream().mapToDouble(IntervalSample::getDurationSeconds).max().orElse(0);
+        List<IntervalSample> steady = new ArrayList<>();
+        for (IntervalSample sample : intervals) {
+            if (sample.getDurationSeconds() >= longest / 2) {
+                steady.add(sample);
+            }
+        }
+        return steady;
+    }
+
+    /**
+     * Keeps the intervals that completed at least one KMS call, the only ones with percentiles.
+     */
+    private static List<IntervalSample> withSuccesses(List<IntervalSample> intervals) {
+        List<IntervalSample> result = new ArrayList<>();
+        for (IntervalSample sample : intervals) {
+            if (sample.getKmsSuccessCount() > 0) {
+                result.add(sample);
+            }
+        }
+        return result;
+    }
+
+    private static void appendPercentiles(StringBuilder report, String name, RunResult.HistogramSnapshot run,
+                                          RunResult.HistogramSnapshot baseline) {
+        if (run == null || baseline == null) {
+            return;
+        }
+        LatencyHistogram a = run.toHistogram();
+        LatencyHistogram b = baseline.toHistogram();
+        report.append(String.format("%s p50/p99/p99.9: %.2f/%.2f/%.2f ms (run) vs %.2f/%.2f/%.2f ms (baseline)%n",
+            name,
+            a.getValueAtPercentile(50) / 1e6, a.getValueAtPercentile(99) / 1e6, a.getValueAtPercentile(99.9) / 1e6,
+            b.getValueAtPercentile(50) / 1e6, b.getValueAtPercentile(99) / 1e6, b.getValueAtPercentile(99.9) / 1e6));
+    }
+
+    /**
+     * Lists settings whose values differ between the runs, so a flagged change can be
+     * traced to a configuration, JVM or SDK difference.
+     */
+    private static void appendDifferences(StringBuilder report, String title, Map<String, String> run,
+                                          Map<String, String> baseline, Set<String> ignored) {
+        Set<String> keys = new TreeSet<>(run.keySet());
+        keys.addAll(baseline.keySet());
+        keys.removeAll(ignored);
+
+        List<String> lines = new ArrayList<>();
+        for (String key : keys) {
+            String a = run.get(key);
+            String b = baseline.get(key);
+            if (!Objects.equals(a, b)) {
+                lines.add(String.format("  %s: %s -> %s", key, b != null ? b : "[unset]", a != null ? a : "[unset]"));
+            }
+        }
+        if (lines.isEmpty()) {
+            report.append(String.format("%s differences: none%n", title));
+        } else {
+            report.append(String.format("%s differences (baseline -> run):%n", title));
+            lines.forEach(line -> report.append(line).append(String.format("%n")));
+        }
+    }
+
+    private static double successRate(RunResult result) {
+        long total = result.getSuccessCount() + result.getErrorCount();
+        return total > 0 ? (double) result.getSuccessCount() / total * 100 : 0;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return values.length > 0 ? sum / values.length : 0;
+    }
+
+    private static double variance(double[] values, double mean) {
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return values.length > 1 ? sum / (values.length - 1) : 0;
+    }
+
+    private static String label(Verdict verdict) {
+        return verdict.name().replace('_', ' ');
+    }
+}
@@ -0,0 +1,166 @@
+package com.tencent.app;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Machine-readable result of one stress test run, saved by {@link ResultStore}.
+ *
+ * Besides the headline numbers of the final report, a result keeps everything needed to
+ * compare runs later: the effective configuration, the environment the run executed in,
+ * the interval series (for variance between intervals) and the full latency histograms
+ * (which can be merged or re-queried for any percentile).
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RunResult {
+
+    /** Unique name of the run, also its file name in the results store */
+    @JsonProperty("runId")
+    private String runId;
+
+    /** ISO 8601 start time of the measured part of the run */
+    @JsonProperty("startTime")
+    private String startTime;
+
+    @JsonProperty("durationSeconds")
+    private double durationSeconds;
+
+    /** Every -D setting the run read, with the value it used */
+    @JsonProperty("config")
+    private Map<String, String> config = new TreeMap<>();
+
+    /** JVM, OS, host and SDK details */
+    @JsonProperty("environment")
+    private Map<String, String> environment = new TreeMap<>();
+
+    @JsonProperty("successCount")
+    private long successCount;
+
+    @JsonProperty("errorCount")
+    private long errorCount;
+
+    @JsonProperty("overallRps")
+    private double overallRps;
+
+    @JsonProperty("peakRps")
+    private double peakRps;
+
+    @JsonProperty("errorClasses")
+    private Map<String, Long> errorClasses = new TreeMap<>();
+
+    @JsonProperty("intervals")
+    private List<IntervalSample> intervals = new ArrayList<>();
+
+    /** Latency of all successful KMS calls (decrypt cache hits excluded) */
+    @JsonProperty("latency")
+    private HistogramSnapshot latency;
+
+    /** Latency per traffic class, in class order */
+    @JsonProperty("classLatency")
+    private Map<String, HistogramSnapshot> classLatency = new LinkedHashMap<>();
+
+    /** Decrypts served by the decrypt cache, included in successCount (0 without a cache) */
+    @JsonProperty("cacheHitCount")
+    private long cacheHitCount;
+
+    /** Latency of decrypt cache hits, null without a cache */
+    @JsonProperty("cacheHitLatency")
+    private HistogramSnapshot cacheHitLatency;
+
+    /** Default constructor for Jackson deserialization */
+    public RunResult() {}
+
+    // Getters and setters for result fields
+    public String getRunId() { return runId; }
+    public void setRunId(String runId) { this.runId = runId; }
+    public String getStartTime() { return startTime; }
+    public void setStartTime(String startTime) { this.startTime = startTime; }
+    public double getDurationSeconds() { return durationSeconds; }
+    public void setDurationSeconds(double durationSeconds) { this.durationSeconds = durationSeconds; }
+    public Map<String, String> getConfig() { return config; }
+    public void setConfig(Map<String, String> config) { this.config = config; }
+    public Map<String, String> getEnvironment() { return environment; }
+    public void setEnvironment(Map<String, String> environment) { this.environment = environment; }
+    public long getSuccessCount() { return successCount; }
+    public void setSuccessCount(long successCount) { this.successCount = successCount; }
+    public long getErrorCount() { return errorCount; }
+    public void setErrorCount(long errorCount) { this.errorCount = errorCount; }
+    public double getOverallRps() { return overallRps; }
+    public void setOverallRps(double overallRps) { this.overallRps = overallRps; }
+    public double getPeakRps() { return peakRps; }
+    public void setPeakRps(double peakRps) { this.peakRps = peakRps; }
+    public Map<String, Long> getErrorClasses() { return errorClasses; }
+    public void setErrorClasses(Map<String, Long> errorClasses) { this.errorClasses = errorClasses; }
+    public List<IntervalSample> getIntervals() { return intervals; }
+    public void setIntervals(List<IntervalSample> intervals) { this.intervals = intervals; }
+    public HistogramSnapshot getLatency() { return latency; }
+    public void setLatency(HistogramSnapshot latency) { this.latency = latency; }
+    public Map<String, HistogramSnapshot> getClassLatency() { return classLatency; }
+    public void setClassLatency(Map<String, HistogramSnapshot> classLatency) { this.classLatency = classLatency; }
+    public long getCacheHitCount() { return cacheHitCount; }
+    public void setCacheHitCount(long cacheHitCount) { this.cacheHitCount = cacheHitCount; }
+    public HistogramSnapshot getCacheHitLatency() { return cacheHitLatency; }
+    public void setCacheHitLatency(HistogramSnapshot cacheHitLatency) { this.cacheHitLatency = cacheHitLatency; }
+
+    /**
+     * Serializable form of a {@link LatencyHistogram}: only non-empty buckets are stored,
+     * so a snapshot stays small while keeping the histogram's full precision.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class HistogramSnapshot {
+
+        /** Bucket index to count, for non-empty buckets only */
+        @JsonProperty("buckets")
+        private Map<Integer, Long> buckets = new TreeMap<>();
+
+        /** Sum of all values in nanoseconds */
+        @JsonProperty("sum")
+        private long sum;
+
+        @JsonProperty("min")
+        private long min;
+
+        @JsonProperty("max")
+        private long max;
+
+        /** Default constructor for Jackson deserialization */
+        public HistogramSnapshot() {}
+
+        /**
+         * Captures the current contents of a histogram.
+         *
+         * @param histogram The histogram to capture
+         * @return A snapshot that can be serialized and turned back into a histogram
+         */
+        public static HistogramSnapshot of(LatencyHistogram histogram) {
+            HistogramSnapshot snapshot = new HistogramSnapshot();
+            snapshot.buckets = histogram.getNonZeroBuckets();
+            snapshot.sum = histogram.getSum();
+            snapshot.min = histogram.getMin();
+            snapshot.max = histogram.getMax();
+            return snapshot;
+        }
+
+        /**
+         * @return A new histogram with the snapshot's contents
+         */
+        public LatencyHistogram toHistogram() {
+            return LatencyHistogram.fromBuckets(buckets, sum, min, max);
+        }
+
+        public Map<Integer, Long> getBuckets() { return buckets; }
+        public void setBuckets(Map<Integer, Long> buckets) { this.buckets = buckets; }
+        public long getSum() { return sum; }
+        public void setSum(long sum) { this.sum = sum; }
+        public long getMin() { return min; }
+        public void setMin(long min) { this.min = min; }
+        public long getMax() { return max; }
+        public void setMax(long max) { this.max = max; }
+    }
+}
@@ -0,0 +1,401 @@
+package com.tencent.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A named, independently configured stream of KMS traffic within one test run.
+ *
+ * Each class has its own workers, optional rate limit, operation mix, payload size and key,
+ * and keeps its own counters, ciphertexts and latency histograms. Running several classes
+ * at once shows how one tenant's load affects another's throughput and tail latency when
+ * they share a KMS quota.
+ *
+ * Classes are configured with the trafficClasses system property, for example:
+ * <pre>
+ * small:concurrency=20,encryptRatio=0.9,payloadBytes=64;bulk:concurrency=5,rps=50,encryptRatio=0.1,payloadBytes=4096,burst=10/60
+ * </pre>
+ * Supported settings are concurrency, rps (0 = unlimited), encryptRatio, payloadBytes
+ * (0 = short default plaintext), keyId (defaults to the test key) and burst. A burst
+ * schedule {@code on/period} in seconds makes the class send only during the first
+ * {@code on} seconds of every {@code period}, counted from test start, and stay idle
+ * for the rest.
+ */
+public class TrafficClass {
+
+    private final String name;
+    private final int index;
+    private final int concurrency;
+    private final double rps;
+    private final double encryptRatio;
+    private final int payloadBytes;
+    private final String keyId;
+    private final long burstOnNanos;
+    private final long burstPeriodNanos;
+
+    // Ciphertexts produced by this class, decrypted only by this class
+    private final ConcurrentLinkedQueue<String> ciphertextQueue = new ConcurrentLinkedQueue<>();
+    private final CiphertextPool ciphertextPool;
+
+    // Per-class statistics
+    private final AtomicLong encryptSuccessCount = new AtomicLong(0);
+    private final AtomicLong decryptSuccessCount = new AtomicLong(0);
+    private final AtomicLong errorCount = new AtomicLong(0);
+    private final AtomicLong cacheHitCount = new AtomicLong(0);
+    private final AtomicLong throttledCount = new AtomicLong(0);
+    private final ConcurrentHashMap<String, AtomicLong> errorClassCounts = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicReference<LatencyHistogram> intervalLatency = new AtomicReference<>(new LatencyHistogram());
+    private final AtomicLong lastSuccessCount = new AtomicLong(0);
+
+    // Rate limiting: the earliest time the next request may start
+    private final long permitIntervalNanos;
+    private final AtomicLong nextPermitNanos = new AtomicLong(System.nanoTime());
+
+    // Burst schedule: on and off phases are counted from this time
+    private volatile long scheduleStartNanos = System.nanoTime();
+
+    /** Longest a worker sleeps through an off phase before re-checking its stop signal */
+    private static final long MAX_IDLE_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    TrafficClass(String name, int index, int concurrency, double rps, double encryptRatio,
+                 int payloadBytes, String keyId, long burstOnSeconds, long burstPeriodSeconds,
+                 CiphertextPool ciphertextPool) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Traffic class '" + name + "': concurrency must be positive");
+        }
+        if (encryptRatio < 0 || encryptRatio > 1) {
+            throw new IllegalArgumentException("Traffic class '" + name + "': encryptRatio must be between 0 and 1");
+        }
+        if (payloadBytes < 0 || payloadBytes > 4096) {
+            throw new IllegalArgumentException("Traffic class '" + name + "': payloadBytes must be between 0 and 4096");
+        }
+        if (burstPeriodSeconds > 0 && (burstOnSeconds <= 0 || burstOnSeconds > burstPeriodSeconds)) {
+            throw new IllegalArgumentException("Traffic class '" + name + "': burst must be on/period with 0 < on <= period");
+        }
+        this.name = name;
+        this.index = index;
+        this.concurrency = concurrency;
+        this.rps = rps;
+        this.encryptRatio = encryptRatio;
+        this.payloadBytes = payloadBytes;
+        this.keyId = keyId;
+        this.burstOnNanos = TimeUnit.SECONDS.toNanos(burstOnSeconds);
+        this.burstPeriodNanos = TimeUnit.SECONDS.toNanos(burstPeriodSeconds);
+        this.ciphertextPool = ciphertextPool;
+        this.permitIntervalNanos = rps > 0 ? (long) (1_000_000_000L / rps) : 0;
+    }
+
+    /**
+     * Parses a traffic class specification (see class documentation).
+     *
+     * @param spec Semicolon-separated class definitions
+     * @param poolSize Ciphertext pool size for each class (0 = use the one-shot queue)
+     * @param reuseSkew Zipf exponent for ciphertext pool sampling
+     * @return The configured classes, in definition order
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static List<TrafficClass> parse(String spec, int poolSize, double reuseSkew) {
+        List<TrafficClass> classes = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+
+        for (String definition : spec.split(";")) {
+            definition = definition.trim();
+            if (definition.isEmpty()) {
+                continue;
+            }
+            int colon = definition.indexOf(':');
+            String name = (colon >= 0 ? definition.substring(0, colon) : definition).trim();
+            if (name.isEmpty() || !names.add(name)) {
+                throw new IllegalArgumentException("Invalid or duplicate traffic class name in: " + definition);
+            }
+
+            int concurrency = 1;
+            double rps = 0;
+            double encryptRatio = 0.5;
+            int payloadBytes = 0;
+            String keyId = null;
+            long burstOn = 0;
+            long burstPeriod = 0;
+
+            String settings = colon >= 0 ? definition.substring(colon + 1) : "";
+            for (String setting : settings.split(",")) {
+                setting = setting.trim();
+                if (setting.isEmpty()) {
+                    continue;
+                }
+                int eq = setting.indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException("Traffic class '" + name + "': expected key=value, got " + setting);
+                }
+                String key = setting.substring(0, eq).trim();
+                String value = setting.substring(eq + 1).trim();
+                try {
+                    switch (key) {
+                        case "concurrency":
+                            concurrency = Integer.parseInt(value);
+                            break;
+                        case "rps":
+                            rps = Double.parseDouble(value);
+                            break;
+                        case "encryptRatio":
+                            encryptRatio = Double.parseDouble(value);
+                            break;
+                        case "payloadBytes":
+                            payloadBytes = Integer.parseInt(value);
+                            break;
+                        case "keyId":
+                            keyId = value.isEmpty() ? null : value;
+                            break;
+                        case "burst":
+                            int slash = value.indexOf('/');
+                            if (slash < 0) {
+                                throw new IllegalArgumentException("Traffic class '" + name + "': burst must be on/period, got " + value);
+                            }
+                            burstOn = Long.parseLong(value.substring(0, slash).trim());
+                            burstPeriod = Long.parseLong(value.substring(slash + 1).trim());
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Traffic class '" + name + "': unknown setting " + key);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Traffic class '" + name + "': invalid value for " + key + ": " + value);
+                }
+            }
+
+            CiphertextPool pool = poolSize > 0 ? new CiphertextPool(poolSize, reuseSkew) : null;
+            classes.add(new TrafficClass(name, classes.size(), concurrency, rps, encryptRatio, payloadBytes, keyId,
+                                         burstOn, burstPeriod, pool));
+        }
+
+        if (classes.isEmpty()) {
+            throw new IllegalArgumentException("No traffic classes defined in: " + spec);
+        }
+        return Collections.unmodifiableList(classes);
+    }
+
+    /**
+     * Starts the burst schedule, so the first on phase begins now. Called at test start.
+     */
+    public void startSchedule() {
+        scheduleStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until this class's rate limit allows another request to start.
+     * Returns immediately when the class has no rate limit or burst schedule.
+     *
+     * During an off phase of the burst schedule the worker sleeps for a short while and
+     * gets false, so it can re-check its stop signal before asking again.
+     *
+     * @return True if a request may start now, false if the class is in an off phase
+     * @throws InterruptedException if the worker is interrupted while waiting
+     */
+    public boolean awaitPermit() throws InterruptedException {
+        long now = System.nanoTime();
+        if (burstPeriodNanos > 0) {
+            long phase = Math.floorMod(now - scheduleStartNanos, burstPeriodNanos);
+            if (phase >= burstOnNanos) {
+                TimeUnit.NANOSECONDS.sleep(Math.min(burstPeriodNanos - phase, MAX_IDLE_SLEEP_NANOS));
+                return false;
+            }
+        }
+        if (permitIntervalNanos == 0) {
+            return true;
+        }
+        long permitAt;
+        while (true) {
+            long next = nextPermitNanos.get();
+            // Do not let an idle period build up a burst of stored permits
+            permitAt = Math.max(next, now);
+            if (nextPermitNanos.compareAndSet(next, permitAt + permitIntervalNanos)) {
+                break;
+            }
+        }
+        long waitNanos = permitAt - now;
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a ciphertext is available for a decryption operation.
+     */
+    public boolean hasCiphertexts() {
+        return ciphertextPool != null ? !ciphertextPool.isEmpty() : !ciphertextQueue.isEmpty();
+    }
+
+    /**
+     * Keeps a ciphertext produced by this class for future decryption operations.
+     */
+    public void addCiphertext(String ciphertext) {
+        if (ciphertextPool != null) {
+            ciphertextPool.add(ciphertext);
+        } else if (ciphertextQueue.size() < 1000) {
+            // Limit queue size to prevent memory issues
+            ciphertextQueue.offer(ciphertext);
+        }
+    }
+
+    /**
+     * Takes a ciphertext to decrypt. Pooled ciphertexts are reused; queued ones are decrypted exactly once.
+     *
+     * @return A ciphertext, or null if none is available
+     */
+    public String nextCiphertext() {
+        return ciphertextPool != null ? ciphertextPool.sample() : ciphertextQueue.poll();
+    }
+
+    /**
+     * Records a successful KMS call in this class's statistics.
+     */
+    public void recordSuccess(boolean encrypt, long latencyNanos) {
+        if (encrypt) {
+            encryptSuccessCount.incrementAndGet();
+        } else {
+            decryptSuccessCount.incrementAndGet();
+        }
+        latency.record(latencyNanos);
+        intervalLatency.get().record(latencyNanos);
+    }
+
+    /**
+     * Records a decrypt served by the decrypt cache. It counts as a successful decrypt but
+     * stays out of the latency histograms, which describe KMS calls only.
+     */
+    public void recordCacheHit() {
+        decryptSuccessCount.incrementAndGet();
+        cacheHitCount.incrementAndGet();
+    }
+
+    /**
+     * Records a failed operation in this class's statistics.
+     *
+     * @param errorClass Error class of the failure (see Main.classifyError)
+     * @param throttled True if KMS rejected the request for exceeding its quota
+     */
+    public void recordError(String errorClass, boolean throttled) {
+        errorCount.incrementAndGet();
+        errorClassCounts.computeIfAbsent(errorClass, k -> new AtomicLong()).incrementAndGet();
+        if (throttled) {
+            throttledCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the latency histogram for the interval since the previous call and starts a new one.
+     */
+    public LatencyHistogram swapIntervalLatency() {
+        return intervalLatency.getAndSet(new LatencyHistogram());
+    }
+
+    /**
+     * Returns the successful operation count since the previous call.
+     */
+    public long successesSinceLastCall() {
+        long current = getSuccessCount();
+        return current - lastSuccessCount.getAndSet(current);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public double getRps() {
+        return rps;
+    }
+
+    public double getEncryptRatio() {
+        return encryptRatio;
+    }
+
+    public int getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * @return The key configured for this class, or null to use the test key
+     */
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public CiphertextPool getCiphertextPool() {
+        return ciphertextPool;
+    }
+
+    public long getEncryptSuccessCount() {
+        return encryptSuccessCount.get();
+    }
+
+    public long getDecryptSuccessCount() {
+        return decryptSuccessCount.get();
+    }
+
+    public long getSuccessCount() {
+        return encryptSuccessCount.get() + decryptSuccessCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * @return True if the class sends in on/off bursts rather than continuously
+     */
+    public boolean hasBurstSchedule() {
+        return burstPeriodNanos > 0;
+    }
+
+    /**
+     * @return The burst schedule as "on/period" in seconds, or null without one
+     */
+    public String getBurstSchedule() {
+        return burstPeriodNanos > 0
+            ? TimeUnit.NANOSECONDS.toSeconds(burstOnNanos) + "/" + TimeUnit.NANOSECONDS.toSeconds(burstPeriodNanos)
+            : null;
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * @return This class's errors by error class, sorted by class name
+     */
+    public Map<String, Long> getErrorClasses() {
+        Map<String, Long> counts = new TreeMap<>();
+        errorClassCounts.forEach((errorClass, count) -> counts.put(errorClass, count.get()));
+        return counts;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    /**
+     * @return Latency of this class's successful KMS calls (decrypt cache hits excluded)
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}